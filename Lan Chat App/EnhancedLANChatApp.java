@@ -3,14 +3,48 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 import java.util.Map;
 
@@ -19,20 +53,34 @@ public class EnhancedLANChatApp extends JFrame {
     private static final int PORT = 4446;
     private static final int TCP_PORT = 4447;
     private static final int WEB_PORT = 8080;
+    private static final int WEB_IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
     private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DATAGRAM_BYTES = 1400; // under a 1500-byte Ethernet MTU once IP and UDP headers are added
     private static final long MAX_FILE_SIZE = 5L * 1024 * 1024 * 1024; // 5GB
-    private static final String MESSAGE_PREFIX = "MSG:";
-    private static final String FILE_PREFIX = "FILE:";
-    private static final String SYSTEM_PREFIX = "SYS:";
+    private static final int MAX_RANGES = 16;
+    private static final long EVENT_HEARTBEAT_SECONDS = 15;
+    private static final int MESSAGE_LOG_CAPACITY = 10000;
+    // Share of incoming multicast datagrams to drop on purpose (0 to 1), for testing loss recovery
+    private static final double MULTICAST_TEST_LOSS = Double.parseDouble(System.getProperty("lanchat.multicast.loss", "0"));
+    // Per endpoint class: how many requests run at once and how many more may wait before a 503.
+    // Override with -Dlanchat.api.limit, -Dlanchat.api.queue, -Dlanchat.downloads.limit, -Dlanchat.downloads.queue
+    private static final int API_CONCURRENCY = Integer.getInteger("lanchat.api.limit", 64);
+    private static final int API_QUEUE = Integer.getInteger("lanchat.api.queue", 256);
+    private static final int DOWNLOAD_CONCURRENCY = Integer.getInteger("lanchat.downloads.limit", 16);
+    private static final int DOWNLOAD_QUEUE = Integer.getInteger("lanchat.downloads.queue", 64);
+    private static final int FILE_REQUEST_TIMEOUT_MILLIS = 10000;
+    private static final long MAX_UPLOAD_OVERHEAD = 64 * 1024; // multipart headers and small form fields
     private static final String SESSION_FILES_DIR = "session_files";
 
     private MulticastSocket socket;
-    private ServerSocket fileServerSocket;
-    private ServerSocket webServerSocket;
+    private ServerSocketChannel fileServerSocket;
+    private WebServer webServer;
     private InetAddress group;
     private NetworkInterface networkInterface;
     private String username;
     private String sessionId;
+    private long senderId;
+    private ReliableChannel multicast;
 
     // GUI Components
     private JTextArea chatArea;
@@ -46,12 +94,15 @@ public class EnhancedLANChatApp extends JFrame {
 
     // File and session management
     private Map<String, FileInfo> sessionFiles = new ConcurrentHashMap<>();
-    private ExecutorService executorService = Executors.newCachedThreadPool();
+    private final MessageLog messageLog = new MessageLog(MESSAGE_LOG_CAPACITY);
+    private final EventHub eventHub = new EventHub();
+    private ExecutorService executorService = newTaskExecutor();
+    private final WorkLimit apiLimit = new WorkLimit("api", executorService, API_CONCURRENCY, API_QUEUE);
+    private final WorkLimit downloadLimit = new WorkLimit("downloads", executorService, DOWNLOAD_CONCURRENCY, DOWNLOAD_QUEUE);
 
     // Message receiver thread
     private Thread receiverThread;
     private Thread fileServerThread;
-    private Thread webServerThread;
     private boolean isConnected = false;
 
     private static class FileInfo {
@@ -72,8 +123,1733 @@ public class EnhancedLANChatApp extends JFrame {
         }
     }
 
+    // One multicast datagram. Every frame starts with
+    //   version (1 byte), type (1), sender id (8), sequence number (4), sent-at millis (8)
+    // followed by the type's fields, strings as a 4-byte length and UTF-8 bytes:
+    //   MESSAGE: sender name, text
+    //   FILE:    sender name, file id, file name, size (8 bytes)
+    //   SYSTEM:  text
+    //   NACK:    id of the sender being asked (8 bytes), count (4), that many sequence numbers (4 each)
+    //   HEARTBEAT: nothing; its sequence number is the sender's latest, not a new one
+    //   FRAGMENT: message id (4), index (2), count (2), then a slice of a frame too big for one datagram.
+    //            Every slice but the last is FRAGMENT_PAYLOAD bytes; the message id is the first slice's number.
+    // An instance is a reusable decoder: decode() records where each string lies in the buffer, and
+    // the strings themselves are only built when something asks for them.
+    private static class ChatFrame {
+        static final byte VERSION = 1;
+        static final byte TYPE_MESSAGE = 1;
+        static final byte TYPE_FILE = 2;
+        static final byte TYPE_SYSTEM = 3;
+        static final byte TYPE_NACK = 4;
+        static final byte TYPE_HEARTBEAT = 5;
+        static final byte TYPE_FRAGMENT = 6;
+        private static final int HEADER_BYTES = 22;
+        static final int FRAGMENT_PAYLOAD = MAX_DATAGRAM_BYTES - HEADER_BYTES - 8;
+        private static final int MAX_FIELDS = 3;
+
+        byte type;
+        long senderId;
+        int seq;
+        long sentAt;
+        long fileSize;
+        long nackTarget;
+        int nackCount;
+        private int nackOffset;
+        int messageId;
+        int fragmentIndex;
+        int fragmentCount;
+        private ByteBuffer buffer;
+        private final int[] fieldOffset = new int[MAX_FIELDS];
+        private final int[] fieldLength = new int[MAX_FIELDS];
+
+        // Reads the frame between the buffer's position and limit; false for anything malformed, from
+        // a newer protocol version, or of a type this version does not know
+        boolean decode(ByteBuffer frame) {
+            buffer = frame;
+            if (frame.remaining() < HEADER_BYTES || frame.get() != VERSION) return false;
+            type = frame.get();
+            senderId = frame.getLong();
+            seq = frame.getInt();
+            sentAt = frame.getLong();
+            switch (type) {
+                case TYPE_MESSAGE:
+                    return field(0) && field(1) && !frame.hasRemaining();
+                case TYPE_FILE:
+                    if (!(field(0) && field(1) && field(2)) || frame.remaining() != 8) return false;
+                    fileSize = frame.getLong();
+                    return true;
+                case TYPE_SYSTEM:
+                    return field(0) && !frame.hasRemaining();
+                case TYPE_NACK:
+                    if (frame.remaining() < 12) return false;
+                    nackTarget = frame.getLong();
+                    nackCount = frame.getInt();
+                    nackOffset = frame.position();
+                    return nackCount >= 0 && frame.remaining() == nackCount * 4;
+                case TYPE_HEARTBEAT:
+                    return !frame.hasRemaining();
+                case TYPE_FRAGMENT:
+                    if (frame.remaining() < 8) return false;
+                    messageId = frame.getInt();
+                    fragmentIndex = frame.getShort() & 0xFFFF;
+                    fragmentCount = frame.getShort() & 0xFFFF;
+                    fieldOffset[0] = frame.position();
+                    fieldLength[0] = frame.remaining();
+                    frame.position(frame.limit());
+                    return fragmentIndex < fragmentCount;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean field(int index) {
+            if (buffer.remaining() < 4) return false;
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) return false;
+            fieldOffset[index] = buffer.position();
+            fieldLength[index] = length;
+            buffer.position(buffer.position() + length);
+            return true;
+        }
+
+        String string(int index) {
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + fieldOffset[index], fieldLength[index], StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[fieldLength[index]];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(fieldOffset[index] + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int nackSeq(int index) {
+            return buffer.getInt(nackOffset + index * 4);
+        }
+
+        int payloadLength() {
+            return fieldLength[0];
+        }
+
+        void copyPayload(byte[] target, int offset) {
+            if (buffer.hasArray()) {
+                System.arraycopy(buffer.array(), buffer.arrayOffset() + fieldOffset[0], target, offset, fieldLength[0]);
+            } else {
+                for (int i = 0; i < fieldLength[0]; i++) {
+                    target[offset + i] = buffer.get(fieldOffset[0] + i);
+                }
+            }
+        }
+
+        static byte[] message(long senderId, int seq, long sentAt, String sender, String text) {
+            return encode(TYPE_MESSAGE, senderId, seq, sentAt, -1, sender, text);
+        }
+
+        static byte[] file(long senderId, int seq, long sentAt, String sender, String fileId, String fileName, long size) {
+            return encode(TYPE_FILE, senderId, seq, sentAt, size, sender, fileId, fileName);
+        }
+
+        static byte[] system(long senderId, int seq, long sentAt, String text) {
+            return encode(TYPE_SYSTEM, senderId, seq, sentAt, -1, text);
+        }
+
+        static byte[] nack(long senderId, long sentAt, long target, List<Integer> seqs) {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + 12 + seqs.size() * 4);
+            frame.put(VERSION).put(TYPE_NACK).putLong(senderId).putInt(0).putLong(sentAt);
+            frame.putLong(target).putInt(seqs.size());
+            for (int seq : seqs) {
+                frame.putInt(seq);
+            }
+            return frame.array();
+        }
+
+        static byte[] fragment(long senderId, int seq, long sentAt, int messageId, int index, int count,
+                               byte[] whole, int offset, int length) {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + 8 + length);
+            frame.put(VERSION).put(TYPE_FRAGMENT).putLong(senderId).putInt(seq).putLong(sentAt);
+            frame.putInt(messageId).putShort((short) index).putShort((short) count).put(whole, offset, length);
+            return frame.array();
+        }
+
+        static byte[] heartbeat(long senderId, int latestSeq, long sentAt) {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES);
+            frame.put(VERSION).put(TYPE_HEARTBEAT).putLong(senderId).putInt(latestSeq).putLong(sentAt);
+            return frame.array();
+        }
+
+        private static byte[] encode(byte type, long senderId, int seq, long sentAt, long size, String... fields) {
+            byte[][] encoded = new byte[fields.length][];
+            int length = HEADER_BYTES + (size >= 0 ? 8 : 0);
+            for (int i = 0; i < fields.length; i++) {
+                encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                length += 4 + encoded[i].length;
+            }
+            ByteBuffer frame = ByteBuffer.allocate(length);
+            frame.put(VERSION).put(type).putLong(senderId).putInt(seq).putLong(sentAt);
+            for (byte[] field : encoded) {
+                frame.putInt(field.length).put(field);
+            }
+            if (size >= 0) {
+                frame.putLong(size);
+            }
+            return frame.array();
+        }
+    }
+
+    // Makes multicast delivery reliable on top of plain datagrams. Every data frame carries its
+    // sender's next sequence number and is kept in a bounded send history. Receivers track the
+    // next number expected from each sender, drop frames they already have, and NACK gaps until
+    // the frames arrive or MAX_NACKS attempts have failed. A sender that has gone quiet sends a
+    // heartbeat with its latest number, so a lost final message is noticed too.
+    // Frames larger than MAX_DATAGRAM_BYTES go out as numbered FRAGMENT frames, each recovered like
+    // any other, and are put back together per sender within a memory budget and a time limit.
+    private static class ReliableChannel {
+        private static final int HISTORY_SIZE = 1024;
+        private static final int MAX_NACK_SEQS = 128;
+        private static final int MAX_NACKS = 10;
+        private static final long TICK_MILLIS = 20;
+        private static final long NACK_DELAY_MILLIS = 30;
+        private static final long RETRANSMIT_HOLDOFF_MILLIS = 20;
+        private static final long HEARTBEAT_MILLIS = 1000;
+        private static final long PEER_EXPIRY_MILLIS = 10 * 60 * 1000;
+        private static final int MAX_FRAGMENTS = 256; // well inside HISTORY_SIZE, so a whole message can be resent
+        private static final long MAX_REASSEMBLY_BYTES = 1024 * 1024; // per sender
+        private static final long REASSEMBLY_TIMEOUT_MILLIS = 10000;
+
+        interface Transport {
+            void send(byte[] frame) throws IOException;
+        }
+
+        private static class Missing {
+            final long detectedAt;
+            long nextNackAt;
+            int nacks;
+
+            Missing(long now) {
+                this.detectedAt = now;
+                this.nextNackAt = now + NACK_DELAY_MILLIS;
+            }
+        }
+
+        // A message arriving in fragments; slots are FRAGMENT_PAYLOAD bytes apart
+        private static class Partial {
+            final byte[] data;
+            final boolean[] have;
+            final long startedAt;
+            int remaining;
+            int length;
+
+            Partial(int count, long now) {
+                this.data = new byte[count * ChatFrame.FRAGMENT_PAYLOAD];
+                this.have = new boolean[count];
+                this.remaining = count;
+                this.startedAt = now;
+            }
+        }
+
+        private static class Peer {
+            int expected;
+            long lastHeard;
+            final Map<Integer, Missing> missing = new LinkedHashMap<>();
+            final Map<Integer, Partial> partials = new LinkedHashMap<>();
+            long partialBytes;
+        }
+
+        private final long senderId;
+        private final Transport transport;
+        private final double lossRate;
+        private final byte[][] history = new byte[HISTORY_SIZE][];
+        private final int[] historySeq = new int[HISTORY_SIZE];
+        private final long[] retransmittedAt = new long[HISTORY_SIZE];
+        private final Map<Long, Peer> peers = new HashMap<>();
+        private ScheduledExecutorService timer;
+        private int lastSeq;
+        private long lastSentAt;
+
+        private long sent;
+        private long retransmitted;
+        private long received;
+        private long duplicates;
+        private long gaps;
+        private long recovered;
+        private long lost;
+        private long nacksSent;
+        private long nacksReceived;
+        private long injectedDrops;
+        private long recoveryMillisTotal;
+        private long recoveryMillisMax;
+        private long deliveryMillisTotal;
+        private long deliveryMillisMax;
+        private long fragmentedSent;
+        private long reassembled;
+        private long reassemblyTimeouts;
+        private long reassemblyEvictions;
+
+        // lossRate drops that share of incoming datagrams on purpose, to exercise recovery
+        ReliableChannel(long senderId, Transport transport, double lossRate) {
+            this.senderId = senderId;
+            this.transport = transport;
+            this.lossRate = lossRate;
+        }
+
+        void start() {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "multicast-repair");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+
+        // Numbers, records and sends one data frame, split into fragments when it would not fit in
+        // one datagram; the lock keeps frames leaving in number order
+        synchronized void send(IntFunction<byte[]> frameForSeq) throws IOException {
+            int first = lastSeq + 1;
+            byte[] frame = frameForSeq.apply(first);
+            if (frame.length <= MAX_DATAGRAM_BYTES) {
+                record(++lastSeq, frame);
+                return;
+            }
+            int count = (frame.length + ChatFrame.FRAGMENT_PAYLOAD - 1) / ChatFrame.FRAGMENT_PAYLOAD;
+            if (count > MAX_FRAGMENTS) {
+                throw new IOException("Message too large (" + frame.length + " bytes)");
+            }
+            long sentAt = System.currentTimeMillis();
+            fragmentedSent++;
+            for (int index = 0; index < count; index++) {
+                int offset = index * ChatFrame.FRAGMENT_PAYLOAD;
+                int seq = ++lastSeq;
+                record(seq, ChatFrame.fragment(senderId, seq, sentAt, first, index, count,
+                        frame, offset, Math.min(ChatFrame.FRAGMENT_PAYLOAD, frame.length - offset)));
+            }
+        }
+
+        private void record(int seq, byte[] frame) throws IOException {
+            int slot = Math.floorMod(seq, HISTORY_SIZE);
+            history[slot] = frame;
+            historySeq[slot] = seq;
+            retransmittedAt[slot] = 0;
+            lastSentAt = System.currentTimeMillis();
+            sent++;
+            transport.send(frame);
+        }
+
+        boolean dropIncoming() {
+            if (lossRate > 0 && ThreadLocalRandom.current().nextDouble() < lossRate) {
+                synchronized (this) {
+                    injectedDrops++;
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Takes every decoded frame from another sender. Returns true only for a data frame seen
+         * for the first time, which the caller then shows; NACKs and heartbeats are handled here.
+         * A fragment that completes its message returns true with the frame re-decoded as that message.
+         */
+        synchronized boolean receive(ChatFrame frame) throws IOException {
+            long now = System.currentTimeMillis();
+            if (frame.type == ChatFrame.TYPE_NACK) {
+                if (frame.nackTarget == senderId) {
+                    nacksReceived++;
+                    for (int i = 0; i < frame.nackCount; i++) {
+                        retransmit(frame.nackSeq(i), now);
+                    }
+                }
+                return false;
+            }
+            Peer peer = peers.get(frame.senderId);
+            if (peer == null) {
+                // Numbering starts wherever we joined; earlier history is not ours to ask for
+                peer = new Peer();
+                peer.expected = frame.type == ChatFrame.TYPE_HEARTBEAT ? frame.seq + 1 : frame.seq;
+                peers.put(frame.senderId, peer);
+            }
+            peer.lastHeard = now;
+            if (frame.type == ChatFrame.TYPE_HEARTBEAT) {
+                expectUpTo(peer, frame.seq + 1, now);
+                return false;
+            }
+            int seq = frame.seq;
+            Missing gap = peer.missing.remove(seq);
+            if (gap != null) {
+                recovered++;
+                long took = now - gap.detectedAt;
+                recoveryMillisTotal += took;
+                recoveryMillisMax = Math.max(recoveryMillisMax, took);
+            } else if (seq - peer.expected < 0) {
+                duplicates++;
+                return false;
+            } else {
+                expectUpTo(peer, seq, now);
+                peer.expected = seq + 1;
+            }
+            received++;
+            // Comparable across machines only as far as their clocks agree
+            long delivery = Math.max(0, now - frame.sentAt);
+            deliveryMillisTotal += delivery;
+            deliveryMillisMax = Math.max(deliveryMillisMax, delivery);
+            return frame.type != ChatFrame.TYPE_FRAGMENT || reassemble(peer, frame, now);
+        }
+
+        private boolean reassemble(Peer peer, ChatFrame fragment, long now) {
+            int count = fragment.fragmentCount;
+            int index = fragment.fragmentIndex;
+            boolean last = index == count - 1;
+            if (count < 2 || count > MAX_FRAGMENTS
+                    || fragment.payloadLength() > ChatFrame.FRAGMENT_PAYLOAD
+                    || (!last && fragment.payloadLength() != ChatFrame.FRAGMENT_PAYLOAD)) {
+                return false;
+            }
+            Partial partial = peer.partials.get(fragment.messageId);
+            if (partial == null) {
+                long size = (long) count * ChatFrame.FRAGMENT_PAYLOAD;
+                // Make room by giving up on the oldest unfinished messages
+                Iterator<Partial> oldest = peer.partials.values().iterator();
+                while (peer.partialBytes + size > MAX_REASSEMBLY_BYTES && oldest.hasNext()) {
+                    peer.partialBytes -= oldest.next().data.length;
+                    oldest.remove();
+                    reassemblyEvictions++;
+                }
+                partial = new Partial(count, now);
+                peer.partials.put(fragment.messageId, partial);
+                peer.partialBytes += size;
+            }
+            if (partial.have.length != count || partial.have[index]) {
+                return false;
+            }
+            fragment.copyPayload(partial.data, index * ChatFrame.FRAGMENT_PAYLOAD);
+            partial.have[index] = true;
+            if (last) {
+                partial.length = index * ChatFrame.FRAGMENT_PAYLOAD + fragment.payloadLength();
+            }
+            if (--partial.remaining > 0) {
+                return false;
+            }
+            peer.partials.remove(fragment.messageId);
+            peer.partialBytes -= partial.data.length;
+            reassembled++;
+            return fragment.decode(ByteBuffer.wrap(partial.data, 0, partial.length))
+                    && fragment.type != ChatFrame.TYPE_FRAGMENT;
+        }
+
+        // Everything from peer.expected up to (not including) seq went missing
+        private void expectUpTo(Peer peer, int seq, long now) {
+            int gap = seq - peer.expected;
+            if (gap <= 0) return;
+            gaps += gap;
+            // Frames older than the sender's history can't be sent again
+            int unrecoverable = Math.max(0, gap - HISTORY_SIZE);
+            lost += unrecoverable;
+            for (int missing = peer.expected + unrecoverable; missing != seq; missing++) {
+                peer.missing.put(missing, new Missing(now));
+            }
+            peer.expected = seq;
+        }
+
+        private void retransmit(int seq, long now) throws IOException {
+            int slot = Math.floorMod(seq, HISTORY_SIZE);
+            if (history[slot] == null || historySeq[slot] != seq) return;
+            // Several receivers usually miss the same datagram; one resend answers all of them
+            if (now - retransmittedAt[slot] < RETRANSMIT_HOLDOFF_MILLIS) return;
+            retransmittedAt[slot] = now;
+            retransmitted++;
+            transport.send(history[slot]);
+        }
+
+        private synchronized void tick() {
+            long now = System.currentTimeMillis();
+            try {
+                Iterator<Map.Entry<Long, Peer>> peerEntries = peers.entrySet().iterator();
+                while (peerEntries.hasNext()) {
+                    Map.Entry<Long, Peer> entry = peerEntries.next();
+                    Peer peer = entry.getValue();
+                    if (peer.missing.isEmpty() && peer.partials.isEmpty() && now - peer.lastHeard > PEER_EXPIRY_MILLIS) {
+                        peerEntries.remove();
+                        continue;
+                    }
+                    // A message whose missing fragments were given up on can never complete
+                    Iterator<Partial> partials = peer.partials.values().iterator();
+                    while (partials.hasNext()) {
+                        Partial partial = partials.next();
+                        if (now - partial.startedAt > REASSEMBLY_TIMEOUT_MILLIS) {
+                            peer.partialBytes -= partial.data.length;
+                            partials.remove();
+                            reassemblyTimeouts++;
+                        }
+                    }
+                    List<Integer> due = new ArrayList<>();
+                    Iterator<Map.Entry<Integer, Missing>> gapEntries = peer.missing.entrySet().iterator();
+                    while (gapEntries.hasNext() && due.size() < MAX_NACK_SEQS) {
+                        Map.Entry<Integer, Missing> gap = gapEntries.next();
+                        Missing missing = gap.getValue();
+                        if (missing.nextNackAt > now) continue;
+                        if (missing.nacks == MAX_NACKS) {
+                            lost++;
+                            gapEntries.remove();
+                            continue;
+                        }
+                        missing.nacks++;
+                        // Back off linearly: a lost NACK or resend should be retried soon, a dead sender not forever
+                        missing.nextNackAt = now + NACK_DELAY_MILLIS * missing.nacks;
+                        due.add(gap.getKey());
+                    }
+                    if (!due.isEmpty()) {
+                        nacksSent++;
+                        transport.send(ChatFrame.nack(senderId, System.currentTimeMillis(), entry.getKey(), due));
+                    }
+                }
+                if (lastSeq > 0 && now - lastSentAt >= HEARTBEAT_MILLIS) {
+                    lastSentAt = now;
+                    transport.send(ChatFrame.heartbeat(senderId, lastSeq, now));
+                }
+            } catch (IOException e) {
+                // The socket is closing or the network is down; the next tick tries again
+            }
+        }
+
+        synchronized String toJson() {
+            return "{\"sent\":" + sent + ",\"retransmitted\":" + retransmitted
+                    + ",\"received\":" + received + ",\"duplicates\":" + duplicates
+                    + ",\"gaps\":" + gaps + ",\"recovered\":" + recovered + ",\"lost\":" + lost
+                    + ",\"pending\":" + peers.values().stream().mapToInt(peer -> peer.missing.size()).sum()
+                    + ",\"nacksSent\":" + nacksSent + ",\"nacksReceived\":" + nacksReceived
+                    + ",\"injectedDrops\":" + injectedDrops + ",\"peers\":" + peers.size()
+                    + ",\"avgRecoveryMillis\":" + (recovered == 0 ? 0 : recoveryMillisTotal / recovered)
+                    + ",\"maxRecoveryMillis\":" + recoveryMillisMax
+                    + ",\"avgDeliveryMillis\":" + (received == 0 ? 0 : deliveryMillisTotal / received)
+                    + ",\"maxDeliveryMillis\":" + deliveryMillisMax
+                    + ",\"fragmentedSent\":" + fragmentedSent + ",\"reassembled\":" + reassembled
+                    + ",\"reassemblyTimeouts\":" + reassemblyTimeouts
+                    + ",\"reassemblyEvictions\":" + reassemblyEvictions
+                    + ",\"reassemblyBytes\":" + peers.values().stream().mapToLong(peer -> peer.partialBytes).sum() + "}";
+        }
+    }
+
+    // One parsed HTTP request; header names are lower-cased
+    private static class HttpRequest {
+        final String method;
+        final String path;
+        final String query;
+        final String version;
+        final Map<String, String> headers;
+        byte[] body = new byte[0];
+        BodySink sink;
+        long bodyLength;
+
+        HttpRequest(String method, String target, String version, Map<String, String> headers) {
+            this.method = method;
+            this.version = version;
+            this.headers = headers;
+            int queryStart = target.indexOf('?');
+            this.path = queryStart < 0 ? target : target.substring(0, queryStart);
+            this.query = queryStart < 0 ? "" : target.substring(queryStart + 1);
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        boolean keepAlive() {
+            String connection = headers.getOrDefault("connection", "").toLowerCase();
+            if (connection.contains("close")) return false;
+            return !version.equals("HTTP/1.0") || connection.contains("keep-alive");
+        }
+
+        String bodyText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        // The first value of a query parameter, or null
+        String parameter(String name) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                String key = equals < 0 ? pair : pair.substring(0, equals);
+                if (key.equals(name)) {
+                    try {
+                        return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+                    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // An HTTP response whose body is a sequence of in-memory pieces and regions of one file
+    private static class HttpResponse {
+        final int status;
+        final String reason;
+        private final StringBuilder headers = new StringBuilder();
+        final ArrayDeque<BodyPart> body = new ArrayDeque<>();
+        FileChannel file;
+        ResponseStream stream;
+        boolean close;
+
+        // Bytes to send, or when bytes is null a region of the response's file
+        static class BodyPart {
+            final ByteBuffer bytes;
+            long position;
+            long length;
+
+            BodyPart(ByteBuffer bytes) {
+                this.bytes = bytes;
+            }
+
+            BodyPart(long position, long length) {
+                this.bytes = null;
+                this.position = position;
+                this.length = length;
+            }
+
+            long remaining() {
+                return bytes != null ? bytes.remaining() : length;
+            }
+        }
+
+        HttpResponse(int status, String reason) {
+            this.status = status;
+            this.reason = reason;
+        }
+
+        static HttpResponse of(int status, String reason, String contentType, String body) {
+            HttpResponse response = new HttpResponse(status, reason);
+            response.header("Content-Type", contentType);
+            response.append(body);
+            return response;
+        }
+
+        HttpResponse header(String name, String value) {
+            headers.append(name).append(": ").append(value).append("\r\n");
+            return this;
+        }
+
+        HttpResponse append(String text) {
+            body.add(new BodyPart(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))));
+            return this;
+        }
+
+        HttpResponse appendFile(long position, long length) {
+            body.add(new BodyPart(position, length));
+            return this;
+        }
+
+        long contentLength() {
+            long length = 0;
+            for (BodyPart part : body) {
+                length += part.remaining();
+            }
+            return length;
+        }
+
+        ByteBuffer encodeHead(boolean keepAlive) {
+            StringBuilder head = new StringBuilder(128 + headers.length());
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+            head.append(headers);
+            if (stream == null) {
+                head.append("Content-Length: ").append(contentLength()).append("\r\n");
+            }
+            head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+            return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        void release() {
+            if (stream != null) {
+                stream.close();
+            }
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                file = null;
+            }
+        }
+    }
+
+    // The open end of a long-lived response such as an event stream. Any thread may send; the
+    // connection's selector thread writes the queued bytes as the socket accepts them.
+    private static class ResponseStream {
+        private static final long MAX_BACKLOG_BYTES = 1024 * 1024;
+
+        private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong backlog = new AtomicLong();
+        private volatile Runnable onData = () -> { };
+        private volatile boolean closed;
+
+        // A reader that falls MAX_BACKLOG_BYTES behind is cut off and has to reconnect
+        boolean send(byte[] data) {
+            if (closed) return false;
+            if (backlog.addAndGet(data.length) > MAX_BACKLOG_BYTES) {
+                close();
+                return false;
+            }
+            pending.add(ByteBuffer.wrap(data));
+            onData.run();
+            return true;
+        }
+
+        void close() {
+            closed = true;
+            onData.run();
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        void attach(Runnable onData) {
+            this.onData = onData;
+        }
+
+        ByteBuffer peek() {
+            return pending.peek();
+        }
+
+        void poll() {
+            ByteBuffer sent = pending.poll();
+            if (sent != null) {
+                backlog.addAndGet(-sent.capacity());
+            }
+        }
+
+        boolean hasPending() {
+            return !pending.isEmpty();
+        }
+    }
+
+    // The chat transcript as a fixed-size ring of sequence-numbered lines. Numbers start at 1 and keep
+    // counting as old lines are overwritten, so a client can ask for whatever came after the last one it saw.
+    private static class MessageLog {
+        private final String[] ring;
+        private long lastSeq;
+
+        MessageLog(int capacity) {
+            this.ring = new String[capacity];
+        }
+
+        synchronized long append(String message) {
+            lastSeq++;
+            ring[(int) (lastSeq % ring.length)] = message;
+            return lastSeq;
+        }
+
+        synchronized long getLastSeq() {
+            return lastSeq;
+        }
+
+        // The oldest sequence number still held; one past lastSeq while the log is empty
+        synchronized long getFirstSeq() {
+            return Math.max(1, lastSeq - ring.length + 1);
+        }
+
+        // Lines numbered after 'since', oldest first; costs only the lines returned
+        synchronized List<String> since(long since) {
+            long from = Math.max(since + 1, getFirstSeq());
+            List<String> messages = new ArrayList<>((int) Math.max(0, lastSeq - from + 1));
+            for (long seq = from; seq <= lastSeq; seq++) {
+                messages.add(ring[(int) (seq % ring.length)]);
+            }
+            return messages;
+        }
+
+        synchronized String text() {
+            StringBuilder text = new StringBuilder();
+            for (String message : since(0)) {
+                text.append(message).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    // Fans chat and file-list changes out to every open /api/events stream as Server-Sent Events.
+    // Each event is encoded once and the same bytes are queued on every stream.
+    private static class EventHub {
+        private final Set<ResponseStream> streams = ConcurrentHashMap.newKeySet();
+
+        // The initial events and the registration happen under the hub's lock, so a subscriber sees
+        // every later event exactly once after its snapshot
+        synchronized void subscribe(ResponseStream stream, List<byte[]> initialEvents) {
+            stream.send("retry: 2000\n\n".getBytes(StandardCharsets.UTF_8));
+            for (byte[] event : initialEvents) {
+                stream.send(event);
+            }
+            streams.add(stream);
+        }
+
+        synchronized void publish(String event, String data) {
+            publish(event, -1, data);
+        }
+
+        // An id lets a reconnecting browser report the last one it saw in Last-Event-ID
+        synchronized void publish(String event, long id, String data) {
+            if (streams.isEmpty()) return;
+            byte[] encoded = encode(event, id, data);
+            streams.removeIf(stream -> !stream.send(encoded));
+        }
+
+        // A comment line keeps idle connections open through proxies and finds clients that went away
+        void startHeartbeat(long seconds) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            byte[] ping = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+            timer.scheduleAtFixedRate(() -> streams.removeIf(stream -> !stream.send(ping)), seconds, seconds, TimeUnit.SECONDS);
+        }
+
+        int getSubscriberCount() {
+            return streams.size();
+        }
+
+        static byte[] encode(String event, long id, String data) {
+            StringBuilder text = new StringBuilder(data.length() + 48);
+            text.append("event: ").append(event).append('\n');
+            if (id >= 0) {
+                text.append("id: ").append(id).append('\n');
+            }
+            // SSE ends a line at CR, LF or CRLF, so all three must start a new data field or a
+            // message could smuggle in event or id fields of its own
+            for (String line : data.split("\r\n|\r|\n", -1)) {
+                text.append("data: ").append(line).append('\n');
+            }
+            text.append('\n');
+            return text.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private interface HttpHandler {
+        HttpResponse handle(HttpRequest request) throws IOException;
+    }
+
+    // Receives a request body as it arrives instead of having it buffered in memory
+    private interface BodySink {
+        void write(ByteBuffer chunk) throws IOException;
+
+        // Called on a worker once the whole body has been written
+        HttpResponse finish() throws IOException;
+
+        void abort();
+    }
+
+    private interface StreamingHandler {
+        // Returns a sink to stream the request's body into, or null to have it buffered
+        BodySink open(HttpRequest request) throws IOException;
+    }
+
+    // Rejects a request with the given status, e.g. from StreamingHandler.open before the body is read
+    private static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+        final String reason;
+
+        HttpStatusException(int status, String reason) {
+            super(status + " " + reason);
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+    // Incremental multipart/form-data parser. File parts go straight to a FileChannel in the target
+    // directory as the body arrives, so memory use is one window however large the upload is;
+    // other fields are kept as short strings.
+    private static class MultipartUpload implements BodySink {
+        private static final int WINDOW_BYTES = 64 * 1024;
+        private static final int MAX_PART_HEADER_BYTES = 8192;
+        private static final int MAX_FIELD_BYTES = 4096;
+
+        private enum State { PREAMBLE, DELIMITER, HEADERS, DATA, EPILOGUE }
+
+        static class UploadedFile {
+            final String name;
+            final Path path;
+            final long size;
+
+            UploadedFile(String name, Path path, long size) {
+                this.name = name;
+                this.path = path;
+                this.size = size;
+            }
+        }
+
+        final Map<String, String> fields = new HashMap<>();
+        final List<UploadedFile> files = new ArrayList<>();
+        private final byte[] delimiter;
+        private final Path directory;
+        private final long maxFileSize;
+        private final Function<MultipartUpload, HttpResponse> onComplete;
+        private final ByteBuffer window = ByteBuffer.allocate(WINDOW_BYTES);
+        private State state = State.PREAMBLE;
+        private FileChannel out;
+        private Path outPath;
+        private String outName;
+        private long outSize;
+        private String fieldName;
+        private ByteArrayOutputStream field;
+
+        MultipartUpload(String boundary, Path directory, long maxFileSize, Function<MultipartUpload, HttpResponse> onComplete) {
+            this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            this.directory = directory;
+            this.maxFileSize = maxFileSize;
+            this.onComplete = onComplete;
+            // The body opens with "--boundary"; a leading CRLF lets it match the delimiter like every later one
+            window.put((byte) '\r').put((byte) '\n');
+        }
+
+        @Override
+        public void write(ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                int count = Math.min(window.remaining(), chunk.remaining());
+                ByteBuffer slice = chunk.duplicate();
+                slice.limit(slice.position() + count);
+                window.put(slice);
+                chunk.position(chunk.position() + count);
+                parse();
+            }
+        }
+
+        // Consumes everything in the window that can be decided, keeping only a possible partial delimiter or header block
+        private void parse() throws IOException {
+            window.flip();
+            try {
+                boolean progress = true;
+                while (progress) {
+                    progress = false;
+                    switch (state) {
+                        case PREAMBLE:
+                        case DATA: {
+                            int at = indexOf(window, delimiter, window.position());
+                            int end = at >= 0 ? at : Math.max(window.position(), window.limit() - delimiter.length + 1);
+                            if (state == State.DATA && end > window.position()) {
+                                ByteBuffer data = window.duplicate();
+                                data.limit(end);
+                                emit(data);
+                            }
+                            window.position(end);
+                            if (at >= 0) {
+                                window.position(at + delimiter.length);
+                                endPart();
+                                state = State.DELIMITER;
+                                progress = true;
+                            }
+                            break;
+                        }
+                        case DELIMITER:
+                            if (window.remaining() >= 2) {
+                                byte first = window.get();
+                                byte second = window.get();
+                                if (first == '-' && second == '-') {
+                                    state = State.EPILOGUE;
+                                } else if (first == '\r' && second == '\n') {
+                                    state = State.HEADERS;
+                                } else {
+                                    throw new HttpStatusException(400, "Bad Request");
+                                }
+                                progress = true;
+                            }
+                            break;
+                        case HEADERS: {
+                            int end = indexOf(window, new byte[] {'\r', '\n', '\r', '\n'}, window.position());
+                            if (end < 0) {
+                                if (window.remaining() > MAX_PART_HEADER_BYTES) throw new HttpStatusException(400, "Bad Request");
+                                break;
+                            }
+                            String headers = new String(window.array(), window.position(), end - window.position(), StandardCharsets.UTF_8);
+                            window.position(end + 4);
+                            startPart(headers);
+                            state = State.DATA;
+                            progress = true;
+                            break;
+                        }
+                        case EPILOGUE:
+                            window.position(window.limit());
+                            break;
+                    }
+                }
+            } finally {
+                window.compact();
+            }
+        }
+
+        private static int indexOf(ByteBuffer buffer, byte[] pattern, int from) {
+            byte[] data = buffer.array();
+            int last = buffer.limit() - pattern.length;
+            outer:
+            for (int i = from; i <= last; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) continue outer;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private void startPart(String headers) throws IOException {
+            String name = null;
+            String fileName = null;
+            for (String header : headers.split("\r\n")) {
+                if (header.toLowerCase().startsWith("content-disposition:")) {
+                    name = parameter(header, "name");
+                    fileName = parameter(header, "filename");
+                }
+            }
+            if (fileName != null) {
+                // Browsers may send a full client path; only the last component is kept
+                outName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1).trim();
+                if (outName.isEmpty()) outName = "upload";
+                outPath = directory.resolve(UUID.randomUUID() + "_" + outName);
+                out = FileChannel.open(outPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                outSize = 0;
+            } else if (name != null) {
+                fieldName = name;
+                field = new ByteArrayOutputStream();
+            }
+        }
+
+        private static String parameter(String header, String key) {
+            int start = header.indexOf("; " + key + "=\"");
+            if (start < 0) return null;
+            start += key.length() + 4;
+            int end = header.indexOf('"', start);
+            return end < 0 ? null : header.substring(start, end);
+        }
+
+        private void emit(ByteBuffer data) throws IOException {
+            if (out != null) {
+                outSize += data.remaining();
+                if (outSize > maxFileSize) {
+                    throw new HttpStatusException(413, "Payload Too Large");
+                }
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            } else if (field != null && field.size() + data.remaining() <= MAX_FIELD_BYTES) {
+                field.write(data.array(), data.position(), data.remaining());
+            }
+        }
+
+        private void endPart() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+                files.add(new UploadedFile(outName, outPath, outSize));
+                outPath = null;
+            } else if (field != null) {
+                fields.put(fieldName, new String(field.toByteArray(), StandardCharsets.UTF_8));
+                field = null;
+            }
+        }
+
+        @Override
+        public HttpResponse finish() throws IOException {
+            if (state != State.EPILOGUE) {
+                abort();
+                throw new HttpStatusException(400, "Bad Request");
+            }
+            return onComplete.apply(this);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                if (outPath != null) {
+                    Files.deleteIfExists(outPath);
+                }
+                for (UploadedFile file : files) {
+                    Files.deleteIfExists(file.path);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to remove incomplete upload: " + e.getMessage());
+            }
+            files.clear();
+        }
+    }
+
+    // Runs one class of work on the shared executor with at most 'limit' tasks at once. Up to
+    // 'maxQueued' more wait in a queue without holding a thread; beyond that execute() refuses, so
+    // the caller can answer "busy" at once instead of piling up threads.
+    private static class WorkLimit {
+        private final String name;
+        private final Executor executor;
+        private final int limit;
+        private final int maxQueued;
+        private final Queue<QueuedTask> queue = new ArrayDeque<>();
+        private int active;
+        private int peakActive;
+        private long completed;
+        private long rejected;
+        private long dequeued;
+        private long totalWaitNanos;
+
+        private static class QueuedTask {
+            final Runnable task;
+            final long since = System.nanoTime();
+
+            QueuedTask(Runnable task) {
+                this.task = task;
+            }
+        }
+
+        WorkLimit(String name, Executor executor, int limit, int maxQueued) {
+            this.name = name;
+            this.executor = executor;
+            this.limit = Math.max(1, limit);
+            this.maxQueued = Math.max(0, maxQueued);
+        }
+
+        // False when both the running slots and the queue are full
+        boolean execute(Runnable task) {
+            synchronized (this) {
+                if (active >= limit) {
+                    if (queue.size() >= maxQueued) {
+                        rejected++;
+                        return false;
+                    }
+                    queue.add(new QueuedTask(task));
+                    return true;
+                }
+                active++;
+                peakActive = Math.max(peakActive, active);
+            }
+            try {
+                // A worker that finishes a task takes the next queued one itself
+                executor.execute(() -> {
+                    Runnable next = task;
+                    while (next != null) {
+                        try {
+                            next.run();
+                        } catch (RuntimeException e) {
+                            System.err.println(name + " task failed: " + e);
+                        }
+                        next = finished();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    active--;
+                }
+                throw e;
+            }
+            return true;
+        }
+
+        private synchronized Runnable finished() {
+            completed++;
+            QueuedTask queued = queue.poll();
+            if (queued == null) {
+                active--;
+                return null;
+            }
+            dequeued++;
+            totalWaitNanos += System.nanoTime() - queued.since;
+            return queued.task;
+        }
+
+        synchronized String toJson() {
+            return "{\"limit\":" + limit + ",\"maxQueued\":" + maxQueued
+                    + ",\"active\":" + active + ",\"peakActive\":" + peakActive
+                    + ",\"queued\":" + queue.size() + ",\"completed\":" + completed
+                    + ",\"rejected\":" + rejected
+                    + ",\"avgQueueWaitMillis\":" + (dequeued == 0 ? 0 : totalWaitNanos / dequeued / 1000000) + "}";
+        }
+    }
+
+    // Non-blocking HTTP/1.1 server. A few selector threads own every socket; connections stay open
+    // between requests, and pipelined requests are answered one at a time in arrival order while
+    // the handlers themselves run under the WorkLimit chosen per request, which answers 503 when
+    // it is full. Bodies are buffered up to MAX_BODY_BYTES
+    // unless the streaming handler takes them, in which case they are passed on as they are read,
+    // one chunk at a time on a worker so a slow disk never stalls the selector.
+    private static class WebServer {
+        private static final int MAX_HEAD_BYTES = 64 * 1024;
+        private static final int MAX_BODY_BYTES = 1024 * 1024;
+        private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+        private static final long IDLE_TIMEOUT_MILLIS = 30000;
+        private static final long WRITE_QUANTUM = 1024 * 1024; // per connection per wakeup, so one download can't starve the rest
+
+        private final HttpHandler handler;
+        private final StreamingHandler streaming;
+        private final Function<HttpRequest, WorkLimit> workers;
+        private final Executor bodyWriter;
+        private final IoLoop[] loops;
+        private final AtomicInteger nextLoop = new AtomicInteger();
+        private final AtomicInteger openConnections = new AtomicInteger();
+        private ServerSocketChannel serverChannel;
+        private volatile boolean running;
+
+        WebServer(HttpHandler handler, StreamingHandler streaming, Function<HttpRequest, WorkLimit> workers,
+                  Executor bodyWriter, int ioThreads) {
+            this.handler = handler;
+            this.streaming = streaming;
+            this.workers = workers;
+            this.bodyWriter = bodyWriter;
+            this.loops = new IoLoop[ioThreads];
+        }
+
+        void start(int port) throws IOException {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(port), 256);
+            serverChannel.configureBlocking(false);
+            running = true;
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop();
+                Thread thread = new Thread(loops[i], "web-io-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            IoLoop acceptor = loops[0];
+            acceptor.execute(() -> {
+                try {
+                    serverChannel.register(acceptor.selector, SelectionKey.OP_ACCEPT);
+                } catch (IOException e) {
+                    System.err.println("Web server could not accept connections: " + e.getMessage());
+                }
+            });
+        }
+
+        int getPort() {
+            return serverChannel.socket().getLocalPort();
+        }
+
+        int getOpenConnections() {
+            return openConnections.get();
+        }
+
+        int getIoThreads() {
+            return loops.length;
+        }
+
+        void stop() {
+            running = false;
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            for (IoLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                SocketChannel accepted = channel;
+                loop.execute(() -> loop.register(accepted));
+            }
+        }
+
+        private class IoLoop implements Runnable {
+            final Selector selector;
+            private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+            IoLoop() throws IOException {
+                selector = Selector.open();
+            }
+
+            void execute(Runnable task) {
+                tasks.add(task);
+                selector.wakeup();
+            }
+
+            void register(SocketChannel channel) {
+                try {
+                    HttpConnection connection = new HttpConnection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        // Ignore
+                    }
+                }
+            }
+
+            @Override
+            public void run() {
+                long lastSweep = System.currentTimeMillis();
+                while (running) {
+                    try {
+                        selector.select(1000);
+                        Runnable task;
+                        while ((task = tasks.poll()) != null) {
+                            task.run();
+                        }
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            HttpConnection connection = (HttpConnection) key.attachment();
+                            try {
+                                if (key.isReadable()) connection.onReadable();
+                                if (key.isValid() && key.isWritable()) connection.onWritable();
+                            } catch (IOException | RuntimeException e) {
+                                connection.close();
+                            }
+                        }
+                        long now = System.currentTimeMillis();
+                        if (now - lastSweep >= 1000) {
+                            lastSweep = now;
+                            closeIdle(now);
+                        }
+                    } catch (IOException e) {
+                        if (running) {
+                            System.err.println("Web server error: " + e.getMessage());
+                        }
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof HttpConnection) {
+                        ((HttpConnection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+
+            private void closeIdle(long now) {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof HttpConnection) {
+                        HttpConnection connection = (HttpConnection) key.attachment();
+                        if (!connection.busy && !connection.writingBody && now - connection.lastActive > IDLE_TIMEOUT_MILLIS) {
+                            connection.close();
+                        }
+                    }
+                }
+            }
+        }
+
+        // Touched only by its selector thread; a handler's result is handed back through IoLoop.execute
+        private class HttpConnection {
+            final SocketChannel channel;
+            final IoLoop loop;
+            SelectionKey key;
+            ByteBuffer in = ByteBuffer.allocate(8192);
+            HttpRequest request;
+            long bodyRead;
+            ByteBuffer bodyChunk;
+            boolean writingBody;
+            boolean busy;
+            HttpResponse response;
+            ByteBuffer head;
+            boolean keepAlive;
+            long lastActive = System.currentTimeMillis();
+
+            HttpConnection(SocketChannel channel, IoLoop loop) {
+                this.channel = channel;
+                this.loop = loop;
+            }
+
+            void onReadable() throws IOException {
+                if (!in.hasRemaining()) {
+                    in = grow(in);
+                }
+                int read = channel.read(in);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                lastActive = System.currentTimeMillis();
+                if (response != null && response.stream != null) {
+                    // Nothing is expected from a client on a stream; reading only notices when it leaves
+                    in.clear();
+                    return;
+                }
+                process();
+            }
+
+            // Parses as many complete requests as the buffer holds, one at a time
+            private void process() throws IOException {
+                while (!busy && !writingBody) {
+                    if (request == null) {
+                        int headEnd = findHeadEnd();
+                        if (headEnd < 0) {
+                            if (in.position() >= MAX_HEAD_BYTES) {
+                                reject(431, "Request Header Fields Too Large");
+                            }
+                            break;
+                        }
+                        request = parseHead(headEnd);
+                        consume(headEnd);
+                        if (request == null) {
+                            reject(400, "Bad Request");
+                            break;
+                        }
+                        if (request.header("transfer-encoding") != null) {
+                            reject(411, "Length Required");
+                            break;
+                        }
+                        long length;
+                        try {
+                            length = Long.parseLong(request.headers.getOrDefault("content-length", "0").trim());
+                        } catch (NumberFormatException e) {
+                            reject(400, "Bad Request");
+                            break;
+                        }
+                        if (length < 0) {
+                            reject(400, "Bad Request");
+                            break;
+                        }
+                        request.bodyLength = length;
+                        try {
+                            request.sink = streaming.open(request);
+                        } catch (HttpStatusException e) {
+                            reject(e.status, e.reason);
+                            break;
+                        }
+                        if (request.sink != null) {
+                            if (in.capacity() < STREAM_BUFFER_BYTES) {
+                                in = resize(in, STREAM_BUFFER_BYTES);
+                            }
+                        } else if (length > MAX_BODY_BYTES) {
+                            reject(413, "Payload Too Large");
+                            break;
+                        } else {
+                            request.body = new byte[(int) length];
+                        }
+                        bodyRead = 0;
+                    }
+                    int available = (int) Math.min(in.position(), request.bodyLength - bodyRead);
+                    in.flip();
+                    if (request.sink != null) {
+                        if (available > 0) {
+                            writeBody(available);
+                            break;
+                        }
+                    } else {
+                        in.get(request.body, (int) bodyRead, available);
+                    }
+                    in.compact();
+                    bodyRead += available;
+                    if (bodyRead < request.bodyLength) {
+                        break;
+                    }
+                    HttpRequest complete = request;
+                    request = null;
+                    dispatch(complete);
+                }
+                updateInterest();
+            }
+
+            // Copies out at most one chunk and has a worker write it to the sink while reads are paused,
+            // so the only body held per connection is that chunk and what the socket buffers
+            private void writeBody(int available) {
+                if (bodyChunk == null) {
+                    bodyChunk = ByteBuffer.allocate(STREAM_BUFFER_BYTES);
+                }
+                int count = Math.min(available, bodyChunk.capacity());
+                ByteBuffer slice = in.slice();
+                slice.limit(count);
+                bodyChunk.clear();
+                bodyChunk.put(slice).flip();
+                in.position(in.position() + count);
+                in.compact();
+                writingBody = true;
+                HttpRequest writing = request;
+                ByteBuffer chunk = bodyChunk;
+                try {
+                    bodyWriter.execute(() -> {
+                        IOException failure = null;
+                        try {
+                            writing.sink.write(chunk);
+                        } catch (IOException e) {
+                            failure = e;
+                        } catch (RuntimeException e) {
+                            failure = new IOException(e);
+                        }
+                        IOException result = failure;
+                        loop.execute(() -> bodyWritten(writing, count, result));
+                    });
+                } catch (RejectedExecutionException e) {
+                    writingBody = false;
+                    close();
+                }
+            }
+
+            private void bodyWritten(HttpRequest writing, int count, IOException failure) {
+                writingBody = false;
+                if (!channel.isOpen()) {
+                    // close() leaves a sink that was being written to for this callback to abort
+                    writing.sink.abort();
+                    return;
+                }
+                lastActive = System.currentTimeMillis();
+                try {
+                    if (failure != null) {
+                        writing.sink.abort();
+                        reject(failure instanceof HttpStatusException ? ((HttpStatusException) failure).status : 500,
+                                failure instanceof HttpStatusException ? ((HttpStatusException) failure).reason : "Internal Server Error");
+                        return;
+                    }
+                    bodyRead += count;
+                    if (bodyRead >= writing.bodyLength) {
+                        request = null;
+                        dispatch(writing);
+                    }
+                    process();
+                } catch (IOException | RuntimeException e) {
+                    close();
+                }
+            }
+
+            private int findHeadEnd() {
+                byte[] data = in.array();
+                for (int i = 3; i < in.position(); i++) {
+                    if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                        return i + 1;
+                    }
+                }
+                return -1;
+            }
+
+            private HttpRequest parseHead(int length) {
+                String[] lines = new String(in.array(), 0, length, StandardCharsets.ISO_8859_1).split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                    return null;
+                }
+                Map<String, String> headers = new HashMap<>();
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+                    }
+                }
+                return new HttpRequest(requestLine[0], requestLine[1], requestLine[2], headers);
+            }
+
+            private void consume(int count) {
+                in.flip();
+                in.position(count);
+                in.compact();
+            }
+
+            private ByteBuffer grow(ByteBuffer buffer) {
+                return resize(buffer, Math.min(buffer.capacity() * 2, MAX_HEAD_BYTES + 8192));
+            }
+
+            private ByteBuffer resize(ByteBuffer buffer, int capacity) {
+                ByteBuffer resized = ByteBuffer.allocate(capacity);
+                buffer.flip();
+                resized.put(buffer);
+                return resized;
+            }
+
+            private void dispatch(HttpRequest complete) {
+                busy = true;
+                boolean keep = complete.keepAlive() && running;
+                try {
+                    boolean accepted = workers.apply(complete).execute(() -> {
+                        HttpResponse result;
+                        try {
+                            result = complete.sink != null ? complete.sink.finish() : handler.handle(complete);
+                        } catch (HttpStatusException e) {
+                            result = HttpResponse.of(e.status, e.reason, "text/plain", e.reason);
+                        } catch (Exception e) {
+                            if (complete.sink != null) {
+                                complete.sink.abort();
+                            }
+                            result = HttpResponse.of(500, "Internal Server Error", "text/plain", "Internal Server Error");
+                        }
+                        HttpResponse done = result;
+                        loop.execute(() -> startResponse(done, keep));
+                    });
+                    if (!accepted) {
+                        if (complete.sink != null) {
+                            complete.sink.abort();
+                        }
+                        startResponse(HttpResponse.of(503, "Service Unavailable", "text/plain", "Server busy, try again")
+                                .header("Retry-After", "1"), keep);
+                    }
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+
+            private void reject(int status, String reason) {
+                request = null;
+                busy = true;
+                startResponse(HttpResponse.of(status, reason, "text/plain", reason), false);
+            }
+
+            private void startResponse(HttpResponse result, boolean keep) {
+                if (!channel.isOpen()) {
+                    result.release();
+                    return;
+                }
+                response = result;
+                // A stream ends only when the connection does
+                keepAlive = keep && !result.close && result.stream == null;
+                head = result.encodeHead(keepAlive);
+                if (result.stream != null) {
+                    ResponseStream stream = result.stream;
+                    stream.attach(() -> loop.execute(() -> {
+                        if (response != null && response.stream == stream) {
+                            try {
+                                onWritable();
+                            } catch (IOException e) {
+                                close();
+                            }
+                        }
+                    }));
+                }
+                try {
+                    onWritable();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+
+            void onWritable() throws IOException {
+                if (response == null) {
+                    updateInterest();
+                    return;
+                }
+                long written = 0;
+                if (head.hasRemaining()) {
+                    // Small responses go out with their headers in one gathering write
+                    HttpResponse.BodyPart first = response.body.peek();
+                    written += first != null && first.bytes != null
+                            ? channel.write(new ByteBuffer[] {head, first.bytes}) : channel.write(head);
+                }
+                while (!head.hasRemaining() && !response.body.isEmpty() && written < WRITE_QUANTUM) {
+                    HttpResponse.BodyPart part = response.body.peek();
+                    long count = part.bytes != null ? channel.write(part.bytes) : writeFile(part, WRITE_QUANTUM - written);
+                    written += count;
+                    if (part.remaining() == 0) {
+                        response.body.poll();
+                    } else if (count == 0) {
+                        break;
+                    }
+                }
+                if (!head.hasRemaining() && response.body.isEmpty() && response.stream != null) {
+                    written += writeStream(response.stream);
+                }
+                if (written > 0) {
+                    lastActive = System.currentTimeMillis();
+                }
+                if (head.hasRemaining() || !response.body.isEmpty() || (response.stream != null && !response.stream.isClosed())) {
+                    updateInterest();
+                    return;
+                }
+                finishResponse();
+            }
+
+            private long writeStream(ResponseStream stream) throws IOException {
+                long written = 0;
+                ByteBuffer next;
+                while ((next = stream.peek()) != null && written < WRITE_QUANTUM) {
+                    written += channel.write(next);
+                    if (next.hasRemaining()) break;
+                    stream.poll();
+                }
+                return written;
+            }
+
+            // Hands the file region to the kernel (sendfile) until the socket is full or the quantum is used
+            private long writeFile(HttpResponse.BodyPart part, long quantum) throws IOException {
+                long written = 0;
+                while (written < quantum && part.length > 0) {
+                    long count = response.file.transferTo(part.position, Math.min(part.length, quantum - written), channel);
+                    if (count == 0) {
+                        if (part.position >= response.file.size()) throw new EOFException("File shorter than announced");
+                        break;
+                    }
+                    part.position += count;
+                    part.length -= count;
+                    written += count;
+                }
+                return written;
+            }
+
+            private void finishResponse() throws IOException {
+                response.release();
+                response = null;
+                head = null;
+                busy = false;
+                if (!keepAlive) {
+                    close();
+                    return;
+                }
+                process();
+            }
+
+            private void updateInterest() {
+                if (!key.isValid()) return;
+                if (response != null && response.stream != null) {
+                    boolean pending = head.hasRemaining() || response.stream.hasPending();
+                    key.interestOps(SelectionKey.OP_READ | (pending ? SelectionKey.OP_WRITE : 0));
+                } else if (response != null) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else {
+                    key.interestOps(busy || writingBody ? 0 : SelectionKey.OP_READ);
+                }
+            }
+
+            void close() {
+                if (request != null && request.sink != null) {
+                    // The connection dropped partway through a streamed body; a chunk still being
+                    // written is aborted by its callback once the worker is done with the sink
+                    if (!writingBody) {
+                        request.sink.abort();
+                    }
+                    request = null;
+                }
+                if (response != null) {
+                    response.release();
+                    response = null;
+                }
+                if (key != null) {
+                    key.cancel();
+                }
+                if (channel.isOpen()) {
+                    openConnections.decrementAndGet();
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
     public EnhancedLANChatApp() {
-        sessionId = UUID.randomUUID().toString();
+        UUID session = UUID.randomUUID();
+        sessionId = session.toString();
+        senderId = session.getMostSignificantBits() ^ session.getLeastSignificantBits();
+        multicast = new ReliableChannel(senderId, this::sendFrame, MULTICAST_TEST_LOSS);
         createSessionDirectory();
         initializeGUI();
         setupNetworking();
@@ -217,6 +1993,7 @@ public class EnhancedLANChatApp extends JFrame {
             clearSessionButton.setEnabled(true);
             messageField.requestFocus();
 
+            multicast.start();
             startMessageReceiver();
             sendSystemMessage(username + " joined the chat");
             appendMessage("=== Enhanced LAN Chat with Large File Support ===");
@@ -236,12 +2013,13 @@ public class EnhancedLANChatApp extends JFrame {
     private void startFileServer() {
         fileServerThread = new Thread(() -> {
             try {
-                fileServerSocket = new ServerSocket(TCP_PORT);
+                fileServerSocket = ServerSocketChannel.open();
+                fileServerSocket.bind(new InetSocketAddress(TCP_PORT));
                 appendMessage("File server started on port " + TCP_PORT);
-                while (isConnected && !fileServerSocket.isClosed()) {
+                while (isConnected && fileServerSocket.isOpen()) {
                     try {
-                        Socket clientSocket = fileServerSocket.accept();
-                        executorService.submit(() -> handleFileClient(clientSocket));
+                        SocketChannel clientSocket = fileServerSocket.accept();
+                        executorService.execute(() -> acceptFileClient(clientSocket));
                     } catch (IOException e) {
                         if (isConnected) {
                             appendMessage("File server error: " + e.getMessage());
@@ -257,46 +2035,117 @@ public class EnhancedLANChatApp extends JFrame {
     }
 
     private void startWebServer() {
-        webServerThread = new Thread(() -> {
+        try {
+            webServer = new WebServer(this::handleWebRequest, this::openUpload, this::workLimitFor, executorService, WEB_IO_THREADS);
+            webServer.start(WEB_PORT);
+            eventHub.startHeartbeat(EVENT_HEARTBEAT_SECONDS);
+            appendMessage("Web server started on port " + WEB_PORT);
+        } catch (IOException e) {
+            appendMessage("Failed to start web server: " + e.getMessage());
+        }
+    }
+
+    // Runs on virtual threads when the runtime has them (Java 21+). They are looked up reflectively
+    // so the app still builds and runs on Java 8, where a cached pool of daemon threads is used.
+    private static ExecutorService newTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "chat-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private WorkLimit workLimitFor(HttpRequest request) {
+        return request.path.startsWith("/api/download/") ? downloadLimit : apiLimit;
+    }
+
+    private void refuseFileClient(SocketChannel clientSocket) {
+        try {
+            clientSocket.write(ByteBuffer.wrap("ERROR: Server busy\n".getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // The client is told by the close either way
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    // The request line is read under a timeout before a download slot is taken, so a client that
+    // connects and stays silent cannot hold one of the slots shared with /api/download/
+    private void acceptFileClient(SocketChannel clientSocket) {
+        String request;
+        try {
+            clientSocket.socket().setSoTimeout(FILE_REQUEST_TIMEOUT_MILLIS);
+            request = new BufferedReader(new InputStreamReader(clientSocket.socket().getInputStream(), StandardCharsets.UTF_8)).readLine();
+        } catch (IOException e) {
+            request = null;
+        }
+        if (request == null || !request.startsWith("GET_FILE:")) {
             try {
-                webServerSocket = new ServerSocket(WEB_PORT);
-                appendMessage("Web server started on port " + WEB_PORT);
-                while (isConnected && !webServerSocket.isClosed()) {
-                    try {
-                        Socket clientSocket = webServerSocket.accept();
-                        executorService.submit(() -> handleWebClient(clientSocket));
-                    } catch (IOException e) {
-                        if (isConnected) {
-                            appendMessage("Web server error: " + e.getMessage());
-                        }
-                    }
-                }
+                clientSocket.close();
             } catch (IOException e) {
-                appendMessage("Failed to start web server: " + e.getMessage());
+                // Ignore
             }
-        });
-        webServerThread.setDaemon(true);
-        webServerThread.start();
-    }
-
-    private void handleFileClient(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream out = clientSocket.getOutputStream()) {
-            String request = in.readLine();
-            if (request != null && request.startsWith("GET_FILE:")) {
-                String fileId = request.substring(9);
-                FileInfo fileInfo = sessionFiles.get(fileId);
-                if (fileInfo != null) {
-                    File file = new File(fileInfo.filePath);
-                    if (file.exists()) {
-                        out.write("OK\n".getBytes());
-                        Files.copy(file.toPath(), out);
-                    } else {
-                        out.write("ERROR: File not found\n".getBytes());
+            return;
+        }
+        String fileRequest = request;
+        if (!downloadLimit.execute(() -> handleFileClient(clientSocket, fileRequest))) {
+            refuseFileClient(clientSocket);
+        }
+    }
+
+    private void handleFileClient(SocketChannel clientSocket, String request) {
+        try (OutputStream out = clientSocket.socket().getOutputStream()) {
+            // GET_FILE:<id> sends the whole file after "OK"; GET_FILE:<id>:<offset>[:<length>] sends
+            // one segment after "OK:<offset>:<length>:<size>", so a client can resume or fetch in parallel
+            String[] parts = request.substring(9).split(":");
+            String fileId = parts[0];
+            FileInfo fileInfo = sessionFiles.get(fileId);
+            if (fileInfo != null) {
+                File file = new File(fileInfo.filePath);
+                if (file.exists()) {
+                    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        long size = fileChannel.size();
+                        if (parts.length == 1) {
+                            out.write("OK\n".getBytes());
+                            transferFile(fileChannel, 0, size, clientSocket);
+                            return;
+                        }
+                        long offset, length;
+                        try {
+                            offset = Long.parseLong(parts[1]);
+                            length = parts.length > 2 ? Long.parseLong(parts[2]) : size - offset;
+                        } catch (NumberFormatException e) {
+                            offset = length = -1;
+                        }
+                        if (offset < 0 || offset > size || length < 0) {
+                            out.write("ERROR: Invalid range\n".getBytes());
+                            return;
+                        }
+                        length = Math.min(length, size - offset);
+                        out.write(("OK:" + offset + ":" + length + ":" + size + "\n").getBytes());
+                        transferFile(fileChannel, offset, length, clientSocket);
                     }
                 } else {
-                    out.write("ERROR: File ID not found\n".getBytes());
+                    out.write("ERROR: File not found\n".getBytes());
                 }
+            } else {
+                out.write("ERROR: File ID not found\n".getBytes());
             }
         } catch (IOException e) {
             System.err.println("Error handling file client: " + e.getMessage());
@@ -309,85 +2158,111 @@ public class EnhancedLANChatApp extends JFrame {
         }
     }
 
-    private void handleWebClient(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             OutputStream out = clientSocket.getOutputStream()) {
-            // Read the entire HTTP request
-            String requestLine = in.readLine();
-            if (requestLine == null) return;
-
-            // Read headers
-            String line;
-            StringBuilder headers = new StringBuilder();
-            while ((line = in.readLine()) != null && !line.isEmpty()) {
-                headers.append(line).append("\n");
+    // Sends the region with FileChannel.transferTo, which the kernel serves with sendfile and no user-space copy
+    private static void transferFile(FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long sent = file.transferTo(position, count, target);
+            if (sent == 0 && position >= file.size()) {
+                throw new EOFException("File shorter than announced");
             }
+            position += sent;
+            count -= sent;
+        }
+    }
 
-            String[] requestParts = requestLine.split(" ");
-            String method = requestParts[0];
-            String path = requestParts.length > 1 ? requestParts[1] : "/";
+    private HttpResponse handleWebRequest(HttpRequest request) throws IOException {
+        return withCors(routeWebRequest(request));
+    }
 
-            // Add CORS headers to all responses
-            String corsHeaders = "Access-Control-Allow-Origin: *\r\n" +
-                    "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n" +
-                    "Access-Control-Allow-Headers: Content-Type\r\n";
+    // Add CORS headers to all responses
+    private static HttpResponse withCors(HttpResponse response) {
+        return response
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type");
+    }
 
-            if (method.equals("OPTIONS")) {
-                // Handle preflight requests
-                String response = "HTTP/1.1 200 OK\r\n" + corsHeaders + "\r\n";
-                out.write(response.getBytes());
-                return;
-            }
+    private HttpResponse routeWebRequest(HttpRequest request) throws IOException {
+        String method = request.method;
+        String path = request.path;
 
-            if (method.equals("GET")) {
-                if (path.equals("/") || path.equals("/index.html")) {
-                    sendWebUI(out, corsHeaders);
-                } else if (path.equals("/api/messages")) {
-                    sendMessages(out, corsHeaders);
-                } else if (path.equals("/api/files")) {
-                    sendFileList(out, corsHeaders);
-                } else if (path.startsWith("/api/download/")) {
-                    String fileId = path.substring(14);
-                    sendFileDownload(out, fileId, corsHeaders);
-                } else {
-                    send404(out, corsHeaders);
-                }
-            } else if (method.equals("POST")) {
-                if (path.equals("/api/messages")) {
-                    handleSendMessage(in, out, corsHeaders, headers.toString());
-                } else if (path.equals("/api/clear-session")) {
-                    handleClearSession(out, corsHeaders);
-                } else {
-                    send404(out, corsHeaders);
-                }
-            } else {
-                send404(out, corsHeaders);
+        if (method.equals("OPTIONS")) {
+            // Handle preflight requests
+            return new HttpResponse(200, "OK");
+        }
+
+        if (method.equals("GET")) {
+            if (path.equals("/") || path.equals("/index.html")) {
+                return sendWebUI();
+            } else if (path.equals("/api/messages")) {
+                return sendMessages(request);
+            } else if (path.equals("/api/files")) {
+                return sendFileList();
+            } else if (path.equals("/api/metrics")) {
+                return sendMetrics();
+            } else if (path.equals("/api/events")) {
+                return openEventStream(request);
+            } else if (path.startsWith("/api/download/")) {
+                String fileId = path.substring(14);
+                return sendFileDownload(request, fileId);
             }
-        } catch (IOException e) {
-            System.err.println("Error handling web client: " + e.getMessage());
-        } finally {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                // Ignore
+        } else if (method.equals("POST")) {
+            if (path.equals("/api/messages")) {
+                return handleSendMessage(request);
+            } else if (path.equals("/api/clear-session")) {
+                return handleClearSession();
             }
         }
+        return send404();
+    }
+
+    /**
+     * Streams POST /api/upload (multipart/form-data) straight into session_files. A body that
+     * cannot fit MAX_FILE_SIZE is refused from its Content-Length before any of it is read.
+     */
+    private BodySink openUpload(HttpRequest request) throws IOException {
+        if (!request.method.equals("POST") || !request.path.equals("/api/upload")) {
+            return null;
+        }
+        String contentType = request.headers.getOrDefault("content-type", "");
+        int boundaryStart = contentType.indexOf("boundary=");
+        if (!contentType.toLowerCase().startsWith("multipart/form-data") || boundaryStart < 0) {
+            throw new HttpStatusException(400, "Bad Request");
+        }
+        String boundary = contentType.substring(boundaryStart + 9).split(";")[0].trim().replace("\"", "");
+        if (boundary.isEmpty() || boundary.length() > 70) {
+            throw new HttpStatusException(400, "Bad Request");
+        }
+        if (request.bodyLength > MAX_FILE_SIZE + MAX_UPLOAD_OVERHEAD) {
+            throw new HttpStatusException(413, "Payload Too Large");
+        }
+        return new MultipartUpload(boundary, Paths.get(SESSION_FILES_DIR), MAX_FILE_SIZE, this::completeUpload);
     }
 
-    private void handleSendMessage(BufferedReader in, OutputStream out, String corsHeaders, String headers) throws IOException {
-        // Find content length
-        int contentLength = 0;
-        for (String header : headers.split("\n")) {
-            if (header.toLowerCase().startsWith("content-length:")) {
-                contentLength = Integer.parseInt(header.split(":")[1].trim());
-                break;
+    private HttpResponse completeUpload(MultipartUpload upload) {
+        if (upload.files.isEmpty()) {
+            return withCors(HttpResponse.of(400, "Bad Request", "application/json", "{\"error\":\"No file in upload\"}"));
+        }
+        String sender = upload.fields.getOrDefault("username", "Web User");
+        StringBuilder ids = new StringBuilder();
+        for (MultipartUpload.UploadedFile file : upload.files) {
+            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
+            FileInfo fileInfo = new FileInfo(file.name, file.path.toString(), sender, file.size, timestamp);
+            sessionFiles.put(fileInfo.fileId, fileInfo);
+            try {
+                announceFile(fileInfo);
+            } catch (IOException e) {
+                System.err.println("Failed to announce uploaded file: " + e.getMessage());
             }
+            appendMessage("[" + timestamp + "] " + sender + " uploaded a file: " + file.name);
+            ids.append(ids.length() == 0 ? "\"" : ",\"").append(fileInfo.fileId).append('"');
         }
+        filesChanged();
+        return withCors(HttpResponse.of(200, "OK", "application/json", "{\"status\":\"success\",\"files\":[" + ids + "]}"));
+    }
 
-        // Read the JSON body
-        char[] body = new char[contentLength];
-        in.read(body, 0, contentLength);
-        String jsonBody = new String(body);
+    private HttpResponse handleSendMessage(HttpRequest request) {
+        String jsonBody = request.bodyText();
 
         try {
             // Simple JSON parsing
@@ -396,35 +2271,22 @@ public class EnhancedLANChatApp extends JFrame {
 
             if (message != null && !message.trim().isEmpty()) {
                 // Send the message via multicast
-                String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-                String fullMessage = "[" + timestamp + "] " + webUsername + ": " + message;
-                String dataToSend = MESSAGE_PREFIX + fullMessage;
-                byte[] data = dataToSend.getBytes();
-                DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
-                socket.send(packet);
+                long sentAt = System.currentTimeMillis();
+                multicast.send(seq -> ChatFrame.message(senderId, seq, sentAt, webUsername, message));
 
                 // Also add to local chat
-                SwingUtilities.invokeLater(() -> appendMessage(fullMessage));
+                appendMessage(formatMessage(sentAt, webUsername, message));
 
-                String response = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                        "Content-Type: application/json\r\n\r\n" +
-                        "{\"status\":\"success\"}";
-                out.write(response.getBytes());
+                return HttpResponse.of(200, "OK", "application/json", "{\"status\":\"success\"}");
             } else {
-                String response = "HTTP/1.1 400 Bad Request\r\n" + corsHeaders +
-                        "Content-Type: application/json\r\n\r\n" +
-                        "{\"error\":\"Message is required\"}";
-                out.write(response.getBytes());
+                return HttpResponse.of(400, "Bad Request", "application/json", "{\"error\":\"Message is required\"}");
             }
         } catch (Exception e) {
-            String response = "HTTP/1.1 500 Internal Server Error\r\n" + corsHeaders +
-                    "Content-Type: application/json\r\n\r\n" +
-                    "{\"error\":\"Failed to send message\"}";
-            out.write(response.getBytes());
+            return HttpResponse.of(500, "Internal Server Error", "application/json", "{\"error\":\"Failed to send message\"}");
         }
     }
 
-    private void handleClearSession(OutputStream out, String corsHeaders) throws IOException {
+    private HttpResponse handleClearSession() {
         try {
             // Clear session files
             for (FileInfo fileInfo : sessionFiles.values()) {
@@ -433,18 +2295,13 @@ public class EnhancedLANChatApp extends JFrame {
                 }
             }
             sessionFiles.clear();
+            filesChanged();
             sendSystemMessage(username + " cleared the session");
-            SwingUtilities.invokeLater(() -> appendMessage("Session cleared - all files removed"));
+            appendMessage("Session cleared - all files removed");
 
-            String response = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                    "Content-Type: application/json\r\n\r\n" +
-                    "{\"status\":\"success\"}";
-            out.write(response.getBytes());
+            return HttpResponse.of(200, "OK", "application/json", "{\"status\":\"success\"}");
         } catch (Exception e) {
-            String response = "HTTP/1.1 500 Internal Server Error\r\n" + corsHeaders +
-                    "Content-Type: application/json\r\n\r\n" +
-                    "{\"error\":\"Failed to clear session\"}";
-            out.write(response.getBytes());
+            return HttpResponse.of(500, "Internal Server Error", "application/json", "{\"error\":\"Failed to clear session\"}");
         }
     }
 
@@ -458,28 +2315,130 @@ public class EnhancedLANChatApp extends JFrame {
         return json.substring(startIndex, endIndex);
     }
 
-    private void sendWebUI(OutputStream out, String corsHeaders) throws IOException {
-        String html = generateWebUI();
-        String response = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                "Content-Type: text/html\r\n" +
-                "Content-Length: " + html.length() + "\r\n\r\n" +
-                html;
-        out.write(response.getBytes());
+    private HttpResponse sendWebUI() {
+        return HttpResponse.of(200, "OK", "text/html; charset=UTF-8", generateWebUI());
+    }
+
+    /**
+     * Without parameters returns the transcript as plain text. With {@code ?since=N} returns JSON
+     * holding only the messages numbered after N, plus "last" to pass as the next since and
+     * "missed" when some of them have already been dropped from the log.
+     */
+    private HttpResponse sendMessages(HttpRequest request) {
+        String since = request.parameter("since");
+        if (since == null) {
+            return HttpResponse.of(200, "OK", "text/plain; charset=UTF-8", messageLog.text());
+        }
+        long after;
+        try {
+            after = Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            return HttpResponse.of(400, "Bad Request", "application/json", "{\"error\":\"since must be a number\"}");
+        }
+        List<String> messages;
+        long first;
+        long last;
+        synchronized (messageLog) {
+            messages = messageLog.since(after);
+            first = messageLog.getFirstSeq();
+            last = messageLog.getLastSeq();
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\"first\":").append(first)
+                .append(",\"last\":").append(last)
+                .append(",\"missed\":").append(Math.max(0, first - Math.max(after, 0) - 1))
+                .append(",\"messages\":[");
+        long firstReturned = last - messages.size() + 1;
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append("{\"seq\":").append(firstReturned + i)
+                    .append(",\"text\":").append(jsonString(messages.get(i))).append("}");
+        }
+        json.append("]}");
+        return HttpResponse.of(200, "OK", "application/json", json.toString());
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Opens a Server-Sent Events stream: a "reset" event with the transcript and a "files" event
+     * with the file list, then a "message" event per chat line and a "files" event whenever the
+     * list changes. The connection stays open and costs nothing while the chat is quiet. Message
+     * events carry their sequence number as the event id, so a browser reconnecting with
+     * Last-Event-ID gets just the lines it missed when the log still holds them.
+     */
+    private HttpResponse openEventStream(HttpRequest request) {
+        HttpResponse response = new HttpResponse(200, "OK")
+                .header("Content-Type", "text/event-stream; charset=UTF-8")
+                .header("Cache-Control", "no-cache");
+        response.stream = new ResponseStream();
+        long lastSeen = -1;
+        try {
+            lastSeen = Long.parseLong(request.headers.getOrDefault("last-event-id", "-1").trim());
+        } catch (NumberFormatException e) {
+            // Not one of ours; start over with a reset
+        }
+        synchronized (eventHub) {
+            List<byte[]> initial = new ArrayList<>();
+            long last = messageLog.getLastSeq();
+            if (lastSeen >= messageLog.getFirstSeq() - 1 && lastSeen <= last) {
+                long seq = lastSeen;
+                for (String message : messageLog.since(lastSeen)) {
+                    initial.add(EventHub.encode("message", ++seq, message));
+                }
+            } else {
+                initial.add(EventHub.encode("reset", last, messageLog.text()));
+            }
+            initial.add(EventHub.encode("files", -1, fileListJson()));
+            eventHub.subscribe(response.stream, initial);
+        }
+        return response;
+    }
+
+    private HttpResponse sendMetrics() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // Handlers run on the worker executor, so this thread shows which kind it hands out
+        String json = "{\"workers\":\"" + (isVirtual(Thread.currentThread()) ? "virtual" : "platform") + "\""
+                + ",\"platformThreads\":{\"live\":" + threads.getThreadCount()
+                + ",\"peak\":" + threads.getPeakThreadCount()
+                + ",\"daemon\":" + threads.getDaemonThreadCount() + "}"
+                + ",\"web\":{\"ioThreads\":" + webServer.getIoThreads()
+                + ",\"openConnections\":" + webServer.getOpenConnections()
+                + ",\"eventSubscribers\":" + eventHub.getSubscriberCount() + "}"
+                + ",\"api\":" + apiLimit.toJson()
+                + ",\"downloads\":" + downloadLimit.toJson()
+                + ",\"multicast\":" + multicast.toJson() + "}";
+        return HttpResponse.of(200, "OK", "application/json", json);
     }
 
-    private void sendMessages(OutputStream out, String corsHeaders) throws IOException {
-        StringBuilder messages = new StringBuilder();
-        String chatContent = chatArea.getText();
-        messages.append(chatContent);
+    private void filesChanged() {
+        eventHub.publish("files", fileListJson());
+    }
 
-        String response = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                "Content-Type: text/plain\r\n" +
-                "Content-Length: " + messages.length() + "\r\n\r\n" +
-                messages.toString();
-        out.write(response.getBytes());
+    private HttpResponse sendFileList() {
+        return HttpResponse.of(200, "OK", "application/json", fileListJson());
     }
 
-    private void sendFileList(OutputStream out, String corsHeaders) throws IOException {
+    private String fileListJson() {
         StringBuilder json = new StringBuilder();
         json.append("[");
         boolean first = true;
@@ -496,38 +2455,105 @@ public class EnhancedLANChatApp extends JFrame {
             first = false;
         }
         json.append("]");
-
-        String response = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                "Content-Type: application/json\r\n" +
-                "Content-Length: " + json.length() + "\r\n\r\n" +
-                json.toString();
-        out.write(response.getBytes());
+        return json.toString();
     }
 
-    private void sendFileDownload(OutputStream out, String fileId, String corsHeaders) throws IOException {
+    /**
+     * Sends the file, or with a Range header only the requested byte ranges: one range as a 206
+     * with Content-Range, several as multipart/byteranges. An If-Range validator that no longer
+     * matches gets the whole file, so a resumed download never splices two versions together.
+     */
+    private HttpResponse sendFileDownload(HttpRequest request, String fileId) throws IOException {
         FileInfo fileInfo = sessionFiles.get(fileId);
         if (fileInfo != null) {
             File file = new File(fileInfo.filePath);
             if (file.exists()) {
-                String responseHeader = "HTTP/1.1 200 OK\r\n" + corsHeaders +
-                        "Content-Type: application/octet-stream\r\n" +
-                        "Content-Disposition: attachment; filename=\"" + fileInfo.fileName + "\"\r\n" +
-                        "Content-Length: " + file.length() + "\r\n\r\n";
-                out.write(responseHeader.getBytes());
-                Files.copy(file.toPath(), out);
-            } else {
-                send404(out, corsHeaders);
+                long size = file.length();
+                String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(file.lastModified()) + "\"";
+                String lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        ZonedDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneOffset.UTC));
+
+                String rangeHeader = request.header("range");
+                String ifRange = request.header("if-range");
+                List<long[]> ranges = null;
+                if (rangeHeader != null && (ifRange == null || ifRange.equals(etag) || ifRange.equals(lastModified))) {
+                    ranges = parseRanges(rangeHeader, size);
+                }
+                if (ranges != null && ranges.isEmpty()) {
+                    return HttpResponse.of(416, "Range Not Satisfiable", "text/plain", "Range Not Satisfiable")
+                            .header("Content-Range", "bytes */" + size);
+                }
+
+                // The selector thread sends the file with transferTo once the headers are out
+                HttpResponse response = ranges == null ? new HttpResponse(200, "OK") : new HttpResponse(206, "Partial Content");
+                response.header("Accept-Ranges", "bytes")
+                        .header("ETag", etag)
+                        .header("Last-Modified", lastModified)
+                        .header("Content-Disposition", "attachment; filename=\"" + fileInfo.fileName + "\"");
+                if (ranges == null) {
+                    response.header("Content-Type", "application/octet-stream").appendFile(0, size);
+                } else if (ranges.size() == 1) {
+                    long[] range = ranges.get(0);
+                    response.header("Content-Type", "application/octet-stream")
+                            .header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size)
+                            .appendFile(range[0], range[1] - range[0] + 1);
+                } else {
+                    String boundary = UUID.randomUUID().toString().replace("-", "");
+                    response.header("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                    for (long[] range : ranges) {
+                        response.append("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\n"
+                                + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + size + "\r\n\r\n");
+                        response.appendFile(range[0], range[1] - range[0] + 1);
+                    }
+                    response.append("\r\n--" + boundary + "--\r\n");
+                }
+                response.file = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                return response;
             }
-        } else {
-            send404(out, corsHeaders);
         }
+        return send404();
+    }
+
+    /**
+     * Parses "bytes=0-499,1000-,-200" into inclusive [first, last] pairs clamped to the file.
+     * Returns null when the header should be ignored (not bytes, malformed, or more than
+     * MAX_RANGES ranges) and an empty list when no range overlaps the file.
+     */
+    private static List<long[]> parseRanges(String header, long size) {
+        if (!header.startsWith("bytes=")) return null;
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) return null;
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start, end;
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) continue;
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) return null;
+                }
+                if (start < size && start <= end) {
+                    ranges.add(new long[] {start, end});
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return ranges;
     }
 
-    private void send404(OutputStream out, String corsHeaders) throws IOException {
-        String response = "HTTP/1.1 404 Not Found\r\n" + corsHeaders +
-                "Content-Type: text/html\r\n\r\n" +
-                "<html><body><h1>404 Not Found</h1></body></html>";
-        out.write(response.getBytes());
+    private HttpResponse send404() {
+        return HttpResponse.of(404, "Not Found", "text/html", "<html><body><h1>404 Not Found</h1></body></html>");
     }
 
 private String generateWebUI() {
@@ -876,7 +2902,6 @@ private String generateWebUI() {
             "        function init() {\n" +
             "            username = prompt('Enter your username:') || 'Mobile User';\n" +
             "            connectToChat();\n" +
-            "            startPeriodicUpdates();\n" +
             "            // Enable enter key for sending messages\n" +
             "            document.getElementById('messageInput').addEventListener('keypress', function(e) {\n" +
             "                if (e.key === 'Enter') {\n" +
@@ -885,19 +2910,28 @@ private String generateWebUI() {
             "            });\n" +
             "        }\n" +
             "        function connectToChat() {\n" +
-            "            fetch('/api/messages')\n" +
-            "                .then(response => {\n" +
-            "                    if (response.ok) {\n" +
-            "                        isConnected = true;\n" +
-            "                        updateConnectionStatus();\n" +
-            "                        showNotification('Connected to LAN Chat!');\n" +
-            "                    } else {\n" +
-            "                        throw new Error('Failed to connect to chat server');\n" +
-            "                    }\n" +
-            "                })\n" +
-            "                .catch(error => {\n" +
-            "                    showNotification(`Connection error: ${error.message}`, 'error');\n" +
-            "                });\n" +
+            "            // One Server-Sent Events stream pushes chat lines and file changes; the browser reconnects by itself\n" +
+            "            const events = new EventSource('/api/events');\n" +
+            "            events.onopen = () => {\n" +
+            "                if (!isConnected) showNotification('Connected to LAN Chat!');\n" +
+            "                isConnected = true;\n" +
+            "                updateConnectionStatus();\n" +
+            "            };\n" +
+            "            events.onerror = () => {\n" +
+            "                isConnected = false;\n" +
+            "                updateConnectionStatus();\n" +
+            "            };\n" +
+            "            events.addEventListener('reset', e => {\n" +
+            "                const chatArea = document.getElementById('chatArea');\n" +
+            "                chatArea.textContent = e.data;\n" +
+            "                chatArea.scrollTop = chatArea.scrollHeight;\n" +
+            "            });\n" +
+            "            events.addEventListener('message', e => {\n" +
+            "                const chatArea = document.getElementById('chatArea');\n" +
+            "                chatArea.appendChild(document.createTextNode(e.data + '\\n'));\n" +
+            "                chatArea.scrollTop = chatArea.scrollHeight;\n" +
+            "            });\n" +
+            "            events.addEventListener('files', e => renderFiles(JSON.parse(e.data)));\n" +
             "        }\n" +
             "        function sendMessage() {\n" +
             "            const input = document.getElementById('messageInput');\n" +
@@ -920,70 +2954,46 @@ private String generateWebUI() {
             "                    showNotification(`Error sending message: ${error.message}`, 'error');\n" +
             "                });\n" +
             "        }\n" +
-            "        function fetchMessages() {\n" +
-            "            fetch('/api/messages')\n" +
-            "                .then(response => response.text())\n" +
-            "                .then(data => {\n" +
-            "                    const chatArea = document.getElementById('chatArea');\n" +
-            "                    chatArea.textContent = data;\n" +
-            "                    chatArea.scrollTop = chatArea.scrollHeight;\n" +
-            "                })\n" +
-            "                .catch(error => {\n" +
-            "                    showNotification(`Error fetching messages: ${error.message}`, 'error');\n" +
-            "                });\n" +
-            "        }\n" +
             "        function fetchFiles() {\n" +
             "            fetch('/api/files')\n" +
             "                .then(response => response.json())\n" +
-            "                .then(files => {\n" +
-            "                    const fileList = document.getElementById('fileList');\n" +
-            "                    if (files.length === 0) {\n" +
-            "                        fileList.innerHTML = `\n" +
-            "                            <div style=\"text-align: center; color: #718096; padding: 20px;\">\n" +
-            "                                No files shared yet\n" +
-            "                            </div>\n" +
-            "                        `;\n" +
-            "                        return;\n" +
-            "                    }\n" +
-            "                    fileList.innerHTML = files.map(file => `\n" +
-            "                        <div class=\"file-item\">\n" +
-            "                            <div class=\"file-info\">\n" +
-            "                                <div class=\"file-name\">${file.name}</div>\n" +
-            "                                <div class=\"file-meta\">\n" +
-            "                                    ${formatFileSize(file.size)} • from ${file.sender} • ${file.timestamp}\n" +
-            "                                </div>\n" +
-            "                            </div>\n" +
-            "                            <button class=\"download-btn\" onclick=\"downloadFile('${file.id}')\">\n" +
-            "                                Download\n" +
-            "                            </button>\n" +
-            "                        </div>\n" +
-            "                    `).join('');\n" +
-            "                })\n" +
+            "                .then(renderFiles)\n" +
             "                .catch(error => {\n" +
             "                    showNotification(`Error fetching files: ${error.message}`, 'error');\n" +
             "                });\n" +
             "        }\n" +
+            "        function renderFiles(files) {\n" +
+            "            const fileList = document.getElementById('fileList');\n" +
+            "            if (files.length === 0) {\n" +
+            "                fileList.innerHTML = `\n" +
+            "                    <div style=\"text-align: center; color: #718096; padding: 20px;\">\n" +
+            "                        No files shared yet\n" +
+            "                    </div>\n" +
+            "                `;\n" +
+            "                return;\n" +
+            "            }\n" +
+            "            fileList.innerHTML = files.map(file => `\n" +
+            "                <div class=\"file-item\">\n" +
+            "                    <div class=\"file-info\">\n" +
+            "                        <div class=\"file-name\">${file.name}</div>\n" +
+            "                        <div class=\"file-meta\">\n" +
+            "                            ${formatFileSize(file.size)} • from ${file.sender} • ${file.timestamp}\n" +
+            "                        </div>\n" +
+            "                    </div>\n" +
+            "                    <button class=\"download-btn\" onclick=\"downloadFile('${file.id}')\">\n" +
+            "                        Download\n" +
+            "                    </button>\n" +
+            "                </div>\n" +
+            "            `).join('');\n" +
+            "        }\n" +
             "        function downloadFile(fileId) {\n" +
-            "            fetch(`/api/download/${fileId}`)\n" +
-            "                .then(response => {\n" +
-            "                    if (response.ok) {\n" +
-            "                        return response.blob();\n" +
-            "                    } else {\n" +
-            "                        throw new Error('File not found');\n" +
-            "                    }\n" +
-            "                })\n" +
-            "                .then(blob => {\n" +
-            "                    const url = window.URL.createObjectURL(blob);\n" +
-            "                    const a = document.createElement('a');\n" +
-            "                    a.href = url;\n" +
-            "                    a.download = fileId; // Use the actual filename if available\n" +
-            "                    a.click();\n" +
-            "                    window.URL.revokeObjectURL(url);\n" +
-            "                    showNotification('File downloaded successfully!');\n" +
-            "                })\n" +
-            "                .catch(error => {\n" +
-            "                    showNotification(`Error downloading file: ${error.message}`, 'error');\n" +
-            "                });\n" +
+            "            // A plain link hands the transfer to the browser's download manager, which streams\n" +
+            "            // to disk and resumes an interrupted download with Range/If-Range\n" +
+            "            const a = document.createElement('a');\n" +
+            "            a.href = `/api/download/${fileId}`;\n" +
+            "            a.download = '';\n" +
+            "            a.click();\n" +
+            "            showNotification('Download started');\n" +
             "        }\n" +
             "        function handleFileSelect() {\n" +
             "            const fileInput = document.getElementById('fileInput');\n" +
@@ -1000,25 +3010,31 @@ private String generateWebUI() {
             "        }\n" +
             "        function uploadFile(file) {\n" +
             "            showProgress(true);\n" +
+            "            updateProgressBar(0);\n" +
             "            const formData = new FormData();\n" +
+            "            formData.append('username', username);\n" +
             "            formData.append('file', file);\n" +
-            "            fetch('/api/upload', {\n" +
-            "                method: 'POST',\n" +
-            "                body: formData\n" +
-            "            })\n" +
-            "                .then(response => {\n" +
-            "                    if (response.ok) {\n" +
-            "                        showNotification(`File \"${file.name}\" uploaded successfully!`);\n" +
-            "                    } else {\n" +
-            "                        throw new Error('File upload failed');\n" +
-            "                    }\n" +
-            "                })\n" +
-            "                .catch(error => {\n" +
-            "                    showNotification(`Error uploading file: ${error.message}`, 'error');\n" +
-            "                })\n" +
-            "                .finally(() => {\n" +
-            "                    showProgress(false);\n" +
-            "                });\n" +
+            "            // XMLHttpRequest rather than fetch, for upload progress\n" +
+            "            const xhr = new XMLHttpRequest();\n" +
+            "            xhr.open('POST', '/api/upload');\n" +
+            "            xhr.upload.onprogress = e => {\n" +
+            "                if (e.lengthComputable) updateProgressBar(Math.round(e.loaded * 100 / e.total));\n" +
+            "            };\n" +
+            "            xhr.onload = () => {\n" +
+            "                if (xhr.status === 200) {\n" +
+            "                    showNotification(`File \"${file.name}\" uploaded successfully!`);\n" +
+            "                    fetchFiles();\n" +
+            "                } else {\n" +
+            "                    const reason = xhr.status === 413 ? 'File size exceeds 5GB limit' : 'File upload failed';\n" +
+            "                    showNotification(`Error uploading file: ${reason}`, 'error');\n" +
+            "                }\n" +
+            "                showProgress(false);\n" +
+            "            };\n" +
+            "            xhr.onerror = () => {\n" +
+            "                showNotification('Error uploading file: connection lost', 'error');\n" +
+            "                showProgress(false);\n" +
+            "            };\n" +
+            "            xhr.send(formData);\n" +
             "        }\n" +
             "        function clearSession() {\n" +
             "            if (confirm('This will clear all session files and cannot be undone. Continue?')) {\n" +
@@ -1035,12 +3051,7 @@ private String generateWebUI() {
             "                    });\n" +
             "            }\n" +
             "        }\n" +
-            "        function startPeriodicUpdates() {\n" +
-            "            setInterval(() => {\n" +
-            "                fetchMessages();\n" +
-            "                fetchFiles();\n" +
-            "            }, 5000); // Fetch updates every 5 seconds\n" +
-            "        }\n" +
+
             "        function showProgress(show) {\n" +
             "            document.getElementById('uploadProgress').style.display = show ? 'block' : 'none';\n" +
             "        }\n" +
@@ -1090,15 +3101,11 @@ private String generateWebUI() {
         String message = messageField.getText().trim();
         if (message.isEmpty()) return;
 
-        String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-        String fullMessage = "[" + timestamp + "] " + username + ": " + message;
-        String dataToSend = MESSAGE_PREFIX + fullMessage;
+        long sentAt = System.currentTimeMillis();
 
         try {
-            byte[] data = dataToSend.getBytes();
-            DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
-            socket.send(packet);
-            appendMessage(fullMessage);
+            multicast.send(seq -> ChatFrame.message(senderId, seq, sentAt, username, message));
+            appendMessage(formatMessage(sentAt, username, message));
             messageField.setText("");
         } catch (IOException e) {
             showError("Failed to send message: " + e.getMessage());
@@ -1127,21 +3134,25 @@ private String generateWebUI() {
                 String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
                 FileInfo fileInfo = new FileInfo(file.getName(), filePath, username, file.length(), timestamp);
                 sessionFiles.put(fileInfo.fileId, fileInfo);
+                filesChanged();
 
-                String fileMessage = "[" + timestamp + "] " + username + " shared a file: " + file.getName();
-                sendSystemMessage(fileMessage);
-
-                // Notify others about the file
-                String dataToSend = FILE_PREFIX + fileInfo.fileId + ":" + fileInfo.fileName + ":" + fileInfo.fileSize;
-                byte[] data = dataToSend.getBytes();
-                DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
-                socket.send(packet);
+                announceFile(fileInfo);
             } catch (IOException e) {
                 showError("Failed to send file: " + e.getMessage());
             }
         }
     }
 
+    private void announceFile(FileInfo fileInfo) throws IOException {
+        String fileMessage = "[" + fileInfo.timestamp + "] " + fileInfo.sender + " shared a file: " + fileInfo.fileName;
+        sendSystemMessage(fileMessage);
+
+        // Notify others about the file
+        long sentAt = System.currentTimeMillis();
+        multicast.send(seq -> ChatFrame.file(senderId, seq, sentAt,
+                fileInfo.sender, fileInfo.fileId, fileInfo.fileName, fileInfo.fileSize));
+    }
+
     private void clearSession() {
         for (FileInfo fileInfo : sessionFiles.values()) {
             if (fileInfo.sender.equals(username)) {
@@ -1153,21 +3164,23 @@ private String generateWebUI() {
             }
         }
         sessionFiles.clear();
+        filesChanged();
         sendSystemMessage(username + " cleared the session");
         appendMessage("Session cleared - all files removed");
     }
 private void shutdown() {
     isConnected = false;
+    multicast.stop();
     try {
         if (socket != null && !socket.isClosed()) {
             socket.leaveGroup(new InetSocketAddress(group, PORT), networkInterface); // Fixed line
             socket.close();
         }
-        if (fileServerSocket != null && !fileServerSocket.isClosed()) {
+        if (fileServerSocket != null && fileServerSocket.isOpen()) {
             fileServerSocket.close();
         }
-        if (webServerSocket != null && !webServerSocket.isClosed()) {
-            webServerSocket.close();
+        if (webServer != null) {
+            webServer.stop();
         }
         executorService.shutdownNow();
     } catch (IOException e) {
@@ -1179,34 +3192,37 @@ private void startMessageReceiver() {
     receiverThread = new Thread(() -> {
         byte[] buffer = new byte[BUFFER_SIZE];
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        ByteBuffer view = ByteBuffer.wrap(buffer);
+        ChatFrame frame = new ChatFrame();
 
         while (isConnected) {
             try {
                 socket.receive(packet);
-                String received = new String(packet.getData(), 0, packet.getLength());
-
-                if (received.startsWith(MESSAGE_PREFIX)) {
-                    String message = received.substring(MESSAGE_PREFIX.length());
-                    // Extract the sender's username from the message
-                    String sender = message.split(":")[0].trim();
-                    if (!sender.equals(username)) { // Ignore messages sent by the same user
-                        SwingUtilities.invokeLater(() -> appendMessage(message));
-                    }
-                } else if (received.startsWith(FILE_PREFIX)) {
-                    String fileInfo = received.substring(FILE_PREFIX.length());
-                    String[] parts = fileInfo.split(":");
-                    String fileId = parts[0];
-                    String fileName = parts[1];
-                    long fileSize = Long.parseLong(parts[2]);
-                    String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-
-                    FileInfo info = new FileInfo(fileName, "", "Remote User", fileSize, timestamp);
+                if (multicast.dropIncoming()) {
+                    continue;
+                }
+                view.clear();
+                view.limit(packet.getLength());
+                // Our own frames come back over loopback; anything undecodable is dropped, and
+                // the channel keeps repeats and control frames from reaching the chat
+                if (!frame.decode(view) || frame.senderId == senderId || !multicast.receive(frame)) {
+                    continue;
+                }
+                if (frame.type == ChatFrame.TYPE_MESSAGE) {
+                    appendMessage(formatMessage(frame.sentAt, frame.string(0), frame.string(1)));
+                } else if (frame.type == ChatFrame.TYPE_FILE) {
+                    String fileId = frame.string(1);
+                    String fileName = frame.string(2);
+                    String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date(frame.sentAt));
+
+                    FileInfo info = new FileInfo(fileName, "", frame.string(0), frame.fileSize, timestamp);
+                    info.fileId = fileId;
                     sessionFiles.put(fileId, info);
+                    filesChanged();
 
-                    SwingUtilities.invokeLater(() -> appendMessage("File received: " + fileName));
-                } else if (received.startsWith(SYSTEM_PREFIX)) {
-                    String message = received.substring(SYSTEM_PREFIX.length());
-                    SwingUtilities.invokeLater(() -> appendMessage(message));
+                    appendMessage("File received: " + fileName);
+                } else if (frame.type == ChatFrame.TYPE_SYSTEM) {
+                    appendMessage(frame.string(0));
                 }
             } catch (IOException e) {
                 if (isConnected) {
@@ -1220,17 +3236,40 @@ private void startMessageReceiver() {
 }
 
     private void sendSystemMessage(String message) {
-        String dataToSend = SYSTEM_PREFIX + message;
         try {
-            byte[] data = dataToSend.getBytes();
-            DatagramPacket packet = new DatagramPacket(data, data.length, group, PORT);
-            socket.send(packet);
+            long sentAt = System.currentTimeMillis();
+            multicast.send(seq -> ChatFrame.system(senderId, seq, sentAt, message));
+            // The receiver skips our own frames, so the line is shown here as sendMessage does
+            appendMessage(message);
         } catch (IOException e) {
             showError("Failed to send system message: " + e.getMessage());
         }
     }
 
+    private void sendFrame(byte[] frame) throws IOException {
+        socket.send(new DatagramPacket(frame, frame.length, group, PORT));
+    }
+
+    private static String formatMessage(long sentAt, String sender, String text) {
+        return "[" + new SimpleDateFormat("HH:mm:ss").format(new Date(sentAt)) + "] " + sender + ": " + text;
+    }
+
+    // Safe from any thread: the line is logged and pushed to event streams at once and shown in the
+    // chat area on the event dispatch thread. The hub's lock keeps a new stream's snapshot and this
+    // event from overlapping.
     private void appendMessage(String message) {
+        synchronized (eventHub) {
+            long seq = messageLog.append(message);
+            eventHub.publish("message", seq, message);
+        }
+        if (SwingUtilities.isEventDispatchThread()) {
+            showMessage(message);
+        } else {
+            SwingUtilities.invokeLater(() -> showMessage(message));
+        }
+    }
+
+    private void showMessage(String message) {
         chatArea.append(message + "\n");
         chatArea.setCaretPosition(chatArea.getDocument().getLength());
     }
@@ -1239,7 +3278,136 @@ private void startMessageReceiver() {
         JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
 
+    /**
+     * Loopback throughput of the old stream copy against transferTo, for a file of the given size.
+     * Each path sends the file three times and the best run is reported; the receiver only drains.
+     */
+    private static void runTransferBenchmark(long size) throws IOException, InterruptedException {
+        File file = File.createTempFile("lanchat-bench", ".bin");
+        file.deleteOnExit();
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer block = ByteBuffer.allocateDirect(1024 * 1024);
+            new java.util.Random(42).ints(block.capacity() / 4).forEach(block::putInt);
+            for (long written = 0; written < size; written += block.capacity()) {
+                block.clear();
+                block.limit((int) Math.min(block.capacity(), size - written));
+                while (block.hasRemaining()) out.write(block);
+            }
+        }
+        System.out.printf("Sending a %,d byte file over loopback%n", size);
+        for (String mode : new String[] {"Files.copy", "transferTo"}) {
+            double best = 0;
+            for (int run = 0; run < 3; run++) {
+                best = Math.max(best, benchmarkRun(file, size, mode.equals("transferTo")));
+            }
+            System.out.printf("%-11s %8.1f MB/s%n", mode, best);
+        }
+    }
+
+    private static double benchmarkRun(File file, long size, boolean zeroCopy) throws IOException, InterruptedException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            long[] received = new long[1];
+            Thread receiver = new Thread(() -> {
+                try (SocketChannel client = SocketChannel.open(server.getLocalAddress())) {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+                    int read;
+                    while ((read = client.read(buffer)) >= 0) {
+                        received[0] += read;
+                        buffer.clear();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Benchmark receiver failed: " + e.getMessage());
+                }
+            });
+            receiver.start();
+            long start = System.nanoTime();
+            try (SocketChannel sender = server.accept()) {
+                if (zeroCopy) {
+                    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        transferFile(fileChannel, 0, size, sender);
+                    }
+                } else {
+                    Files.copy(file.toPath(), sender.socket().getOutputStream());
+                }
+            }
+            receiver.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (received[0] != size) {
+                throw new IOException("Receiver got " + received[0] + " of " + size + " bytes");
+            }
+            return size / seconds / (1024 * 1024);
+        }
+    }
+
+    // Decode cost per multicast packet: the old text format against ChatFrame, reported as time and
+    // heap bytes allocated per packet. Each case is warmed up first so the JIT has compiled it.
+    private static void runDecodeBenchmark(int packets) {
+        long sentAt = System.currentTimeMillis();
+        byte[] text = ("FILE:" + UUID.randomUUID() + ":holiday photos 2024.zip:734003200").getBytes(StandardCharsets.UTF_8);
+        byte[] binary = ChatFrame.file(42, 7, sentAt, "alice", UUID.randomUUID().toString(), "holiday photos 2024.zip", 734003200L);
+        ByteBuffer view = ByteBuffer.wrap(binary);
+        ChatFrame frame = new ChatFrame();
+        long[] sink = new long[1];
+
+        Runnable legacy = () -> {
+            String received = new String(text, 0, text.length);
+            if (received.startsWith("FILE:")) {
+                String[] parts = received.substring(5).split(":");
+                sink[0] += parts[0].length() + Long.parseLong(parts[2]);
+            }
+        };
+        Runnable header = () -> {
+            view.clear();
+            if (frame.decode(view)) {
+                sink[0] += frame.senderId + frame.seq + frame.fileSize;
+            }
+        };
+        Runnable display = () -> {
+            view.clear();
+            if (frame.decode(view)) {
+                sink[0] += frame.string(1).length() + frame.string(2).length() + frame.fileSize;
+            }
+        };
+        System.out.printf("Decoding %,d FILE packets%n", packets);
+        benchmarkDecode("text + split", legacy, packets);
+        benchmarkDecode("frame header", header, packets);
+        benchmarkDecode("frame + names", display, packets);
+        if (sink[0] == 0) System.out.println();
+    }
+
+    private static void benchmarkDecode(String name, Runnable decode, int packets) {
+        for (int i = 0; i < packets; i++) decode.run();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = allocations != null ? allocations.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < packets; i++) decode.run();
+        long nanos = System.nanoTime() - start;
+        long bytes = allocations != null ? allocations.getThreadAllocatedBytes(thread) - bytesBefore : -1;
+        System.out.printf("%-14s %8.1f ns/packet %8s bytes/packet%n", name, (double) nanos / packets,
+                bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes / packets));
+    }
+
     public static void main(String[] args) {
+        // Headless benchmark: java EnhancedLANChatApp --benchmark-transfer [megabytes, default 1024]
+        if (args.length > 0 && args[0].equals("--benchmark-transfer")) {
+            try {
+                long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 1024;
+                runTransferBenchmark(megabytes * 1024 * 1024);
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Benchmark failed: " + e.getMessage());
+            }
+            return;
+        }
+        // Headless benchmark: java EnhancedLANChatApp --benchmark-decode [packets, default 5000000]
+        if (args.length > 0 && args[0].equals("--benchmark-decode")) {
+            runDecodeBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 5000000);
+            return;
+        }
+
         SwingUtilities.invokeLater(() -> {
             EnhancedLANChatApp app = new EnhancedLANChatApp();
             app.setVisible(true);
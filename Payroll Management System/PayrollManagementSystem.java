@@ -1,19 +1,75 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.text.GapContent;
+import javax.swing.text.PlainDocument;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.time.DateTimeException;
 import java.time.LocalDate;
+import java.time.Month;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 // Employee Model
 class Employee implements Serializable {
     private static final long serialVersionUID = 1L;
+    
+    /** Salaried employees are paid the base salary per month, hourly employees the base salary per hour worked. */
+    enum PayBasis { SALARIED, HOURLY }
+    
     private int id;
     private String name;
     private String position;
@@ -21,6 +77,7 @@ class Employee implements Serializable {
     private String email;
     private String phone;
     private LocalDate joinDate;
+    private PayBasis payBasis = PayBasis.SALARIED;
     
     public Employee(int id, String name, String position, double baseSalary, String email, String phone) {
         this.id = id;
@@ -47,11 +104,15 @@ class Employee implements Serializable {
     public void setPhone(String phone) { this.phone = phone; }
     public LocalDate getJoinDate() { return joinDate; }
     public void setJoinDate(LocalDate joinDate) { this.joinDate = joinDate; }
+    // Employees serialized before the pay basis existed come back with null
+    public PayBasis getPayBasis() { return payBasis != null ? payBasis : PayBasis.SALARIED; }
+    public void setPayBasis(PayBasis payBasis) { this.payBasis = payBasis; }
 }
 
 // Attendance Model
 class Attendance implements Serializable {
     private static final long serialVersionUID = 1L;
+    private long id;
     private int employeeId;
     private LocalDate date;
     private boolean present;
@@ -65,6 +126,8 @@ class Attendance implements Serializable {
     }
     
     // Getters and Setters
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
     public int getEmployeeId() { return employeeId; }
     public void setEmployeeId(int employeeId) { this.employeeId = employeeId; }
     public LocalDate getDate() { return date; }
@@ -73,11 +136,42 @@ class Attendance implements Serializable {
     public void setPresent(boolean present) { this.present = present; }
     public double getHoursWorked() { return hoursWorked; }
     public void setHoursWorked(double hoursWorked) { this.hoursWorked = hoursWorked; }
+    public YearMonth getPeriod() { return YearMonth.from(date); }
+}
+
+// Monthly Hours - one employee's attendance totals for one month, kept up to date as attendance is marked
+class MonthlyHours {
+    private int daysPresent;
+    private double hoursWorked;
+    
+    public void add(Attendance att) {
+        if (att.isPresent()) {
+            daysPresent++;
+        }
+        hoursWorked += att.getHoursWorked();
+    }
+    
+    public MonthlyHours copy() {
+        MonthlyHours copy = new MonthlyHours();
+        copy.daysPresent = daysPresent;
+        copy.hoursWorked = hoursWorked;
+        return copy;
+    }
+    
+    public int getDaysPresent() { return daysPresent; }
+    public double getHoursWorked() { return hoursWorked; }
 }
 
 // Salary Model
 class Salary implements Serializable {
     private static final long serialVersionUID = 1L;
+    
+    // A salaried basic pays for a standard month and an hourly basic for the regular hours worked; hours beyond the standard day are paid as overtime
+    static final double STANDARD_DAY_HOURS = 8;
+    static final double STANDARD_MONTH_HOURS = 160;
+    static final double OVERTIME_MULTIPLIER = 1.5;
+    
+    private long id;
     private int employeeId;
     private String month;
     private int year;
@@ -86,19 +180,56 @@ class Salary implements Serializable {
     private double deductions;
     private double netSalary;
     private int daysWorked;
+    private double hoursWorked;
+    private double overtimeHours;
+    private double hourlyRate;
+    private double overtimePay;
+    private Employee.PayBasis payBasis;
+    private String position;
     
     public Salary(int employeeId, String month, int year, double basicSalary, double allowances, double deductions, int daysWorked) {
+        this(employeeId, month, year, basicSalary, allowances, deductions, daysWorked, 0, 0);
+    }
+    
+    public Salary(int employeeId, String month, int year, double basicSalary, double allowances, double deductions,
+                  int daysWorked, double hoursWorked, double overtimeHours) {
+        this(employeeId, month, year, Employee.PayBasis.SALARIED, basicSalary, allowances, deductions, daysWorked, hoursWorked, overtimeHours);
+    }
+    
+    /** The rate is the monthly base salary for salaried pay and the hourly rate for hourly pay. */
+    public Salary(int employeeId, String month, int year, Employee.PayBasis payBasis, double rate, double allowances, double deductions,
+                  int daysWorked, double hoursWorked, double overtimeHours) {
         this.employeeId = employeeId;
         this.month = month;
         this.year = year;
-        this.basicSalary = basicSalary;
+        this.payBasis = payBasis;
         this.allowances = allowances;
         this.deductions = deductions;
         this.daysWorked = daysWorked;
-        this.netSalary = basicSalary + allowances - deductions;
+        this.hoursWorked = hoursWorked;
+        this.overtimeHours = overtimeHours;
+        if (payBasis == Employee.PayBasis.HOURLY) {
+            this.hourlyRate = rate;
+            this.basicSalary = (hoursWorked - overtimeHours) * rate;
+        } else {
+            this.hourlyRate = rate / STANDARD_MONTH_HOURS;
+            this.basicSalary = rate;
+        }
+        this.overtimePay = overtimeHours * hourlyRate * OVERTIME_MULTIPLIER;
+        this.netSalary = basicSalary + overtimePay + allowances - deductions;
+    }
+    
+    /** Computes the month's pay from the employee's aggregated attendance hours. */
+    public static Salary calculate(Employee employee, YearMonth period, MonthlyHours hours, double allowances, double deductions) {
+        double overtime = Math.max(0, hours.getHoursWorked() - hours.getDaysPresent() * STANDARD_DAY_HOURS);
+        String month = period.getMonth().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+        return new Salary(employee.getId(), month, period.getYear(), employee.getPayBasis(), employee.getBaseSalary(), allowances, deductions,
+                hours.getDaysPresent(), hours.getHoursWorked(), overtime);
     }
     
     // Getters and Setters
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
     public int getEmployeeId() { return employeeId; }
     public String getMonth() { return month; }
     public int getYear() { return year; }
@@ -107,165 +238,4104 @@ class Salary implements Serializable {
     public double getDeductions() { return deductions; }
     public double getNetSalary() { return netSalary; }
     public int getDaysWorked() { return daysWorked; }
+    public double getHoursWorked() { return hoursWorked; }
+    public double getOvertimeHours() { return overtimeHours; }
+    public double getHourlyRate() { return hourlyRate; }
+    public void setHourlyRate(double hourlyRate) { this.hourlyRate = hourlyRate; }
+    public double getOvertimePay() { return overtimePay; }
+    public void setOvertimePay(double overtimePay) { this.overtimePay = overtimePay; }
     public void setNetSalary(double netSalary) { this.netSalary = netSalary; }
+    // Records from before the pay basis existed were all salaried
+    public Employee.PayBasis getPayBasis() { return payBasis != null ? payBasis : Employee.PayBasis.SALARIED; }
+    public void setPayBasis(Employee.PayBasis payBasis) { this.payBasis = payBasis; }
+    /** The rate this record was priced at: the monthly base salary, or the hourly rate for hourly pay. */
+    public double getPayRate() { return getPayBasis() == Employee.PayBasis.HOURLY ? hourlyRate : basicSalary; }
+    // The employee's position when the salary was recorded; null on records from before it was kept
+    public String getPosition() { return position; }
+    public void setPosition(String position) { this.position = position; }
+    public YearMonth getPeriod() { return YearMonth.of(year, Month.valueOf(month.toUpperCase())); }
 }
 
-// Data Manager
-class DataManager {
-    private List<Employee> employees;
-    private List<Attendance> attendanceRecords;
-    private List<Salary> salaryRecords;
-    private final String DATA_DIR = "payroll_data";
+// Rollup Cell
+class RollupCell implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Set<Integer> employeeIds = new HashSet<>();
+    private double totalBasic;
+    private double totalAllowances;
+    private double totalDeductions;
+    private double totalNet;
     
-    public DataManager() {
-        employees = new ArrayList<>();
-        attendanceRecords = new ArrayList<>();
-        salaryRecords = new ArrayList<>();
-        createDataDirectory();
-        loadData();
+    void add(Salary salary) {
+        employeeIds.add(salary.getEmployeeId());
+        totalBasic += salary.getBasicSalary();
+        totalAllowances += salary.getAllowances();
+        totalDeductions += salary.getDeductions();
+        totalNet += salary.getNetSalary();
     }
     
-    private void createDataDirectory() {
-        try {
-            Files.createDirectories(Paths.get(DATA_DIR));
-        } catch (IOException e) {
-            System.err.println("Error creating data directory: " + e.getMessage());
+    void merge(RollupCell other) {
+        employeeIds.addAll(other.employeeIds);
+        totalBasic += other.totalBasic;
+        totalAllowances += other.totalAllowances;
+        totalDeductions += other.totalDeductions;
+        totalNet += other.totalNet;
+    }
+    
+    public int getHeadcount() { return employeeIds.size(); }
+    public double getTotalBasic() { return totalBasic; }
+    public double getTotalAllowances() { return totalAllowances; }
+    public double getTotalDeductions() { return totalDeductions; }
+    public double getTotalNet() { return totalNet; }
+}
+
+// Rollup Cube keyed by (year, month, position)
+class RollupCube implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final TreeMap<YearMonth, TreeMap<String, RollupCell>> cells = new TreeMap<>();
+    private long salaryCount;
+    
+    // The position is the employee's position at the time the salary was recorded, see DataManager.rollupPosition
+    void add(Salary salary, String position) {
+        cells.computeIfAbsent(salary.getPeriod(), k -> new TreeMap<>())
+                .computeIfAbsent(position, k -> new RollupCell())
+                .add(salary);
+        salaryCount++;
+    }
+    
+    public NavigableMap<YearMonth, TreeMap<String, RollupCell>> getCells() { return cells; }
+    public long getSalaryCount() { return salaryCount; }
+}
+
+// Durable Files - replace a file so that after a crash it is either the old version or the complete new one
+class DurableFiles {
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+    
+    private DurableFiles() {
+    }
+    
+    /**
+     * Writes the parts to a temp sibling, forces them to disk, renames the temp file over the
+     * target and then forces the directory, so the rename itself survives a power loss.
+     */
+    static void write(Path target, byte[]... parts) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (byte[] part : parts) {
+                ByteBuffer buffer = ByteBuffer.wrap(part);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
         }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.toAbsolutePath().getParent());
     }
     
-    public void saveData() {
-        try {
-            saveEmployees();
-            saveAttendance();
-            saveSalaries();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Error saving data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    // Windows cannot open a directory as a channel; there the rename is as durable as NTFS makes it
+    static void syncDirectory(Path dir) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
         }
     }
+}
+
+// Period Segment - an immutable, compressed and checksummed month of closed payroll data
+class PeriodSegment {
+    private static final int MAGIC = 0x50534547; // "PSEG"
+    private static final int VERSION = 2; // 2 added the highest attendance and salary ids to the header
     
-    private void saveEmployees() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_DIR + "/employees.dat"))) {
-            oos.writeObject(employees);
+    private final Path file;
+    private final int version;
+    private final YearMonth period;
+    private final int attendanceCount;
+    private final int salaryCount;
+    private final int daysPresent;
+    private final double totalHours;
+    private final double totalBasic;
+    private final double totalAllowances;
+    private final double totalDeductions;
+    private final double totalNet;
+    private final long maxAttendanceId;
+    private final long maxSalaryId;
+    
+    private PeriodSegment(Path file, int version, YearMonth period, int attendanceCount, int salaryCount, int daysPresent,
+                          double totalHours, double totalBasic, double totalAllowances, double totalDeductions, double totalNet,
+                          long maxAttendanceId, long maxSalaryId) {
+        this.file = file;
+        this.version = version;
+        this.period = period;
+        this.attendanceCount = attendanceCount;
+        this.salaryCount = salaryCount;
+        this.daysPresent = daysPresent;
+        this.totalHours = totalHours;
+        this.totalBasic = totalBasic;
+        this.totalAllowances = totalAllowances;
+        this.totalDeductions = totalDeductions;
+        this.totalNet = totalNet;
+        this.maxAttendanceId = maxAttendanceId;
+        this.maxSalaryId = maxSalaryId;
+    }
+    
+    static Path fileFor(Path dir, YearMonth period) {
+        return dir.resolve(period + ".seg");
+    }
+    
+    /**
+     * Writes the month's records to a new segment file. The layout is a fixed header with the
+     * precomputed totals, the GZIP-compressed record payload, and a CRC32 over both. The file is
+     * written to a temp name, moved into place and marked read-only; an existing segment is never replaced.
+     */
+    static PeriodSegment seal(Path dir, YearMonth period, List<Attendance> attendance, List<Salary> salaries) throws IOException {
+        Path target = fileFor(dir, period);
+        if (Files.exists(target)) {
+            throw new IOException("Segment already exists for " + period);
         }
+        Files.createDirectories(dir);
+        return write(target, period, attendance, salaries);
     }
     
-    private void saveAttendance() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_DIR + "/attendance.dat"))) {
-            oos.writeObject(attendanceRecords);
+    /** Replaces a segment sealed in an older format, e.g. once its records have been given ids. */
+    PeriodSegment rewrite(List<Attendance> attendance, List<Salary> salaries) throws IOException {
+        file.toFile().setWritable(true);
+        return write(file, period, attendance, salaries);
+    }
+    
+    private static PeriodSegment write(Path target, YearMonth period, List<Attendance> attendance, List<Salary> salaries) throws IOException {
+        int daysPresent = 0;
+        double hours = 0;
+        long maxAttendanceId = 0;
+        for (Attendance att : attendance) {
+            if (att.isPresent()) daysPresent++;
+            hours += att.getHoursWorked();
+            maxAttendanceId = Math.max(maxAttendanceId, att.getId());
+        }
+        double basic = 0, allowances = 0, deductions = 0, net = 0;
+        long maxSalaryId = 0;
+        for (Salary sal : salaries) {
+            basic += sal.getBasicSalary();
+            allowances += sal.getAllowances();
+            deductions += sal.getDeductions();
+            net += sal.getNetSalary();
+            maxSalaryId = Math.max(maxSalaryId, sal.getId());
+        }
+        PeriodSegment segment = new PeriodSegment(target, VERSION, period, attendance.size(), salaries.size(), daysPresent,
+                hours, basic, allowances, deductions, net, maxAttendanceId, maxSalaryId);
+        
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(payload))) {
+            oos.writeObject(new ArrayList<>(attendance));
+            oos.writeObject(new ArrayList<>(salaries));
+        }
+        byte[] header = segment.encodeHeader();
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        crc.update(body);
+        
+        // closePeriod deletes the live records once this returns, so the segment must be on disk by then
+        DurableFiles.write(target, header, ByteBuffer.allocate(4).putInt(body.length).array(), body,
+                ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+        target.toFile().setReadOnly();
+        return segment;
+    }
+    
+    private byte[] encodeHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(version);
+            out.writeInt(period.getYear());
+            out.writeInt(period.getMonthValue());
+            out.writeInt(attendanceCount);
+            out.writeInt(salaryCount);
+            out.writeInt(daysPresent);
+            out.writeDouble(totalHours);
+            out.writeDouble(totalBasic);
+            out.writeDouble(totalAllowances);
+            out.writeDouble(totalDeductions);
+            out.writeDouble(totalNet);
+            if (version >= 2) {
+                out.writeLong(maxAttendanceId);
+                out.writeLong(maxSalaryId);
+            }
         }
+        return bytes.toByteArray();
     }
     
-    private void saveSalaries() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_DIR + "/salaries.dat"))) {
-            oos.writeObject(salaryRecords);
+    /** Reads only the header, so startup and reporting never touch the record payload. */
+    static PeriodSegment open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not a period segment: " + file);
+            }
+            YearMonth period = YearMonth.of(in.readInt(), in.readInt());
+            int attendanceCount = in.readInt(), salaryCount = in.readInt(), daysPresent = in.readInt();
+            double hours = in.readDouble(), basic = in.readDouble(), allowances = in.readDouble(), deductions = in.readDouble(), net = in.readDouble();
+            long maxAttendanceId = version >= 2 ? in.readLong() : 0;
+            long maxSalaryId = version >= 2 ? in.readLong() : 0;
+            return new PeriodSegment(file, version, period, attendanceCount, salaryCount, daysPresent,
+                    hours, basic, allowances, deductions, net, maxAttendanceId, maxSalaryId);
+        }
+    }
+    
+    private Object[] readPayload() throws IOException {
+        byte[] all = Files.readAllBytes(file);
+        byte[] header = encodeHeader();
+        ByteBuffer view = ByteBuffer.wrap(all);
+        int bodyLength = view.getInt(header.length);
+        int bodyStart = header.length + 4;
+        CRC32 crc = new CRC32();
+        crc.update(all, 0, header.length);
+        crc.update(all, bodyStart, bodyLength);
+        if (crc.getValue() != view.getLong(bodyStart + bodyLength)) {
+            throw new IOException("Checksum mismatch in sealed period " + period);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(all, bodyStart, bodyLength)))) {
+            return new Object[] { ois.readObject(), ois.readObject() };
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
         }
     }
     
     @SuppressWarnings("unchecked")
-    private void loadData() {
+    public List<Attendance> readAttendance() throws IOException {
+        return (List<Attendance>) readPayload()[0];
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<Salary> readSalaries() throws IOException {
+        return (List<Salary>) readPayload()[1];
+    }
+    
+    public YearMonth getPeriod() { return period; }
+    // Version 1 segments were sealed before every record had an id and carry no id maxima
+    public boolean isCurrentFormat() { return version == VERSION; }
+    public long getMaxAttendanceId() { return maxAttendanceId; }
+    public long getMaxSalaryId() { return maxSalaryId; }
+    public int getAttendanceCount() { return attendanceCount; }
+    public int getSalaryCount() { return salaryCount; }
+    public int getDaysPresent() { return daysPresent; }
+    public double getTotalHours() { return totalHours; }
+    public double getTotalBasic() { return totalBasic; }
+    public double getTotalAllowances() { return totalAllowances; }
+    public double getTotalDeductions() { return totalDeductions; }
+    public double getTotalNet() { return totalNet; }
+}
+
+// Attendance Archive - a whole year of attendance, delta-encoded and compressed, read back only for audits
+class AttendanceArchive {
+    private static final int MAGIC = 0x50415243; // "PARC"
+    private static final int VERSION = 3; // 2 added the record id delta after the hours, 3 the highest record id to the header
+    
+    private final Path file;
+    private final int version;
+    private final int year;
+    private final int recordCount;
+    private final long rawBytes;
+    private final long compressedBytes;
+    private final long maxId;
+    
+    // Measured by the most recent decode
+    private volatile long lastDecodeNanos;
+    
+    private AttendanceArchive(Path file, int version, int year, int recordCount, long rawBytes, long compressedBytes, long maxId) {
+        this.file = file;
+        this.version = version;
+        this.year = year;
+        this.recordCount = recordCount;
+        this.rawBytes = rawBytes;
+        this.compressedBytes = compressedBytes;
+        this.maxId = maxId;
+    }
+    
+    private static int headerBytes(int version) {
+        return version >= 3 ? 44 : 36;
+    }
+    
+    static Path fileFor(Path dir, int year) {
+        return dir.resolve("attendance-" + year + ".arc");
+    }
+    
+    /**
+     * Writes the year's records sorted by employee and date. Each record is stored as the change
+     * from the previous one: the employee id delta, then the day delta packed with the present flag,
+     * then the hours in hundredths and the record id delta, all as varints, so a typical record
+     * takes four or five bytes before Deflate. rawBytes is what the same records occupy in attendance.dat.
+     */
+    static AttendanceArchive write(Path dir, int year, List<Attendance> attendance) throws IOException {
+        Path target = fileFor(dir, year);
+        if (Files.exists(target)) {
+            throw new IOException("Archive already exists for " + year);
+        }
+        Files.createDirectories(dir);
+        return writeTo(target, year, attendance);
+    }
+    
+    /** Replaces an archive written in an older format, e.g. once its records have been given ids. */
+    AttendanceArchive rewrite(List<Attendance> attendance) throws IOException {
+        file.toFile().setWritable(true);
+        return writeTo(file, year, attendance);
+    }
+    
+    private static AttendanceArchive writeTo(Path target, int year, List<Attendance> attendance) throws IOException {
+        List<Attendance> sorted = new ArrayList<>(attendance);
+        sorted.sort(Comparator.comparingInt(Attendance::getEmployeeId).thenComparing(Attendance::getDate));
+        
+        ByteArrayOutputStream deltas = new ByteArrayOutputStream(sorted.size() * 4);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        long rawBytes = 0;
+        long maxId = 0;
+        int previousId = 0;
+        long previousRecordId = 0;
+        long previousDay = LocalDate.of(year, 1, 1).toEpochDay();
+        for (Attendance att : sorted) {
+            if (att.getEmployeeId() != previousId) {
+                writeVarLong(deltas, zigZag(att.getEmployeeId() - previousId));
+                previousId = att.getEmployeeId();
+                previousDay = LocalDate.of(year, 1, 1).toEpochDay();
+            } else {
+                writeVarLong(deltas, 0);
+            }
+            long day = att.getDate().toEpochDay();
+            double centiHours = att.getHoursWorked() * 100;
+            boolean exact = centiHours == Math.rint(centiHours) && centiHours >= 0 && centiHours < Integer.MAX_VALUE;
+            writeVarLong(deltas, ((day - previousDay) << 2) | (exact ? 2 : 0) | (att.isPresent() ? 1 : 0));
+            if (exact) {
+                writeVarLong(deltas, (long) centiHours);
+            } else {
+                long bits = Double.doubleToLongBits(att.getHoursWorked());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    deltas.write((int) (bits >>> shift));
+                }
+            }
+            writeVarLong(deltas, zigZag(att.getId() - previousRecordId));
+            previousRecordId = att.getId();
+            maxId = Math.max(maxId, att.getId());
+            previousDay = day;
+            
+            frame.reset();
+            RecordCodec.encodeAttendance(att, frameOut);
+            rawBytes += 4 + frame.size();
+        }
+        
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, deltas.size() / 4));
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, 1 << 16)) {
+            deltas.writeTo(out);
+        } finally {
+            deflater.end();
+        }
+        byte[] body = compressed.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        
+        AttendanceArchive archive = new AttendanceArchive(target, VERSION, year, sorted.size(), rawBytes, body.length, maxId);
+        ByteBuffer header = ByteBuffer.allocate(headerBytes(VERSION));
+        header.putInt(MAGIC).putInt(VERSION).putInt(year).putInt(archive.recordCount)
+                .putLong(rawBytes).putInt(body.length).putLong(crc.getValue()).putLong(maxId);
+        // The year's live attendance is removed once this returns, so the archive must be on disk by then
+        DurableFiles.write(target, header.array(), body);
+        target.toFile().setReadOnly();
+        return archive;
+    }
+    
+    /** Reads only the header; the records stay compressed until an audit asks for them. */
+    static AttendanceArchive open(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not an attendance archive: " + file);
+            }
+            int year = in.readInt();
+            int count = in.readInt();
+            long rawBytes = in.readLong();
+            int bodyLength = in.readInt();
+            in.readLong(); // CRC, checked when the records are read
+            long maxId = version >= 3 ? in.readLong() : 0;
+            return new AttendanceArchive(file, version, year, count, rawBytes, bodyLength, maxId);
+        }
+    }
+    
+    public List<Attendance> readAttendance() throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer header;
+        byte[] body;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            header = ByteBuffer.allocate(headerBytes(version));
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+            header.flip();
+            header.position(24);
+            body = new byte[header.getInt()];
+            long expectedCrc = header.getLong();
+            ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+            while (bodyBuffer.hasRemaining() && channel.read(bodyBuffer) >= 0) { }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (bodyBuffer.hasRemaining() || crc.getValue() != expectedCrc) {
+                throw new IOException("Checksum mismatch in attendance archive " + year);
+            }
+        }
+        
+        List<Attendance> result = new ArrayList<>(recordCount);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(body)), 1 << 16))) {
+            int employeeId = 0;
+            long yearStart = LocalDate.of(year, 1, 1).toEpochDay();
+            long day = yearStart;
+            long recordId = 0;
+            for (int i = 0; i < recordCount; i++) {
+                long idDelta = unZigZag(readVarLong(in));
+                if (idDelta != 0) {
+                    employeeId += (int) idDelta;
+                    day = yearStart;
+                }
+                long packed = readVarLong(in);
+                day += packed >>> 2;
+                double hours = (packed & 2) != 0 ? readVarLong(in) / 100.0 : in.readDouble();
+                Attendance att = new Attendance(employeeId, LocalDate.ofEpochDay(day), (packed & 1) != 0, hours);
+                if (version >= 2) {
+                    recordId += unZigZag(readVarLong(in));
+                    att.setId(recordId);
+                }
+                result.add(att);
+            }
+        }
+        lastDecodeNanos = System.nanoTime() - start;
+        return result;
+    }
+    
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in attendance archive");
+    }
+    
+    public String describeStats() {
+        String stats = String.format("%d: %,d records, %,d -> %,d bytes (%.1fx)", year, recordCount, rawBytes, compressedBytes, getCompressionRatio());
+        long nanos = lastDecodeNanos;
+        if (nanos > 0) {
+            double seconds = nanos / 1e9;
+            stats += String.format(", decoded at %,.0f records/s (%.1f MB/s)", recordCount / seconds, rawBytes / seconds / (1024 * 1024));
+        }
+        return stats;
+    }
+    
+    public int getYear() { return year; }
+    // Archives before version 3 carry no id maximum, and version 1 records have no ids at all
+    public boolean isCurrentFormat() { return version == VERSION; }
+    public long getMaxId() { return maxId; }
+    public int getRecordCount() { return recordCount; }
+    public long getRawBytes() { return rawBytes; }
+    public long getCompressedBytes() { return compressedBytes; }
+    public double getCompressionRatio() { return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes; }
+    public long getLastDecodeNanos() { return lastDecodeNanos; }
+}
+
+// Payslip Generator
+class PayslipGenerator {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    
+    // Reusable per-thread buffers: each worker renders into its own builder and encodes into its own byte buffer
+    private static final ThreadLocal<StringBuilder> TEXT = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+    private static final ThreadLocal<CharsetEncoder> ENCODER =
+            // A lone surrogate in a name becomes '?' rather than cutting the payslip short
+            ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    private static final ThreadLocal<ByteBuffer[]> BYTES =
+            ThreadLocal.withInitial(() -> new ByteBuffer[] { ByteBuffer.allocateDirect(16 * 1024) });
+    
+    private final YearMonth period;
+    private final List<Salary> salaries;
+    private final Map<Integer, Employee> employees = new HashMap<>();
+    private final Map<Integer, double[]> attendance = new HashMap<>();
+    
+    /**
+     * Snapshots everything needed for the month so generation can run off the EDT
+     * while the data manager keeps changing.
+     */
+    public PayslipGenerator(DataManager dataManager, YearMonth period) throws IOException {
+        this.period = period;
+        boolean closed = dataManager.isPeriodClosed(period);
+        List<Salary> monthSalaries = closed ? dataManager.readClosedSalaries(period, period) : dataManager.getSalariesBetween(period, period);
+        List<Attendance> monthAttendance = closed ? dataManager.readClosedAttendance(period, period) : dataManager.getAttendanceBetween(period, period);
+        monthAttendance.addAll(dataManager.readArchivedAttendance(period, period));
+        
+        // The latest salary calculated for an employee in the month wins
+        Map<Integer, Salary> latest = new LinkedHashMap<>();
+        for (Salary sal : monthSalaries) {
+            latest.put(sal.getEmployeeId(), sal);
+            Employee emp = dataManager.getEmployeeById(sal.getEmployeeId());
+            if (emp != null) {
+                employees.put(emp.getId(), emp);
+            }
+        }
+        this.salaries = new ArrayList<>(latest.values());
+        
+        // One pass over the month's attendance: {days present, days absent, hours worked}
+        for (Attendance att : monthAttendance) {
+            double[] totals = attendance.computeIfAbsent(att.getEmployeeId(), k -> new double[3]);
+            totals[att.isPresent() ? 0 : 1]++;
+            totals[2] += att.getHoursWorked();
+        }
+    }
+    
+    public int getPayslipCount() {
+        return salaries.size();
+    }
+    
+    /**
+     * Writes a text and an HTML payslip per employee under root/yyyy-MM/NNN/, where NNN is
+     * the employee id divided by 1000, so no single directory grows too large.
+     */
+    public int generate(Path root, IntConsumer progress) throws IOException {
+        Path monthDir = root.resolve(period.toString());
+        for (Salary sal : salaries) {
+            Files.createDirectories(shardDir(monthDir, sal.getEmployeeId()));
+        }
+        
+        AtomicInteger done = new AtomicInteger();
         try {
-            loadEmployees();
-            loadAttendance();
-            loadSalaries();
-        } catch (Exception e) {
-            // First run or corrupted data, start fresh
-            System.out.println("Starting with fresh data...");
+            salaries.parallelStream().forEach(sal -> {
+                try {
+                    Path dir = shardDir(monthDir, sal.getEmployeeId());
+                    Employee emp = employees.get(sal.getEmployeeId());
+                    double[] att = attendance.getOrDefault(sal.getEmployeeId(), new double[3]);
+                    
+                    StringBuilder text = TEXT.get();
+                    text.setLength(0);
+                    renderText(text, sal, emp, att);
+                    write(dir.resolve("payslip-" + sal.getEmployeeId() + ".txt"), text);
+                    
+                    text.setLength(0);
+                    renderHtml(text, sal, emp, att);
+                    write(dir.resolve("payslip-" + sal.getEmployeeId() + ".html"), text);
+                    
+                    progress.accept(done.incrementAndGet());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        return done.get();
     }
     
-    @SuppressWarnings("unchecked")
-    private void loadEmployees() throws IOException, ClassNotFoundException {
-        File file = new File(DATA_DIR + "/employees.dat");
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                employees = (List<Employee>) ois.readObject();
+    private static Path shardDir(Path monthDir, int employeeId) {
+        return monthDir.resolve(String.format("%03d", employeeId / 1000));
+    }
+    
+    private static void write(Path file, CharSequence content) throws IOException {
+        ByteBuffer[] holder = BYTES.get();
+        CharsetEncoder encoder = ENCODER.get();
+        int needed = (int) (content.length() * encoder.maxBytesPerChar());
+        if (holder[0].capacity() < needed) {
+            holder[0] = ByteBuffer.allocateDirect(Integer.highestOneBit(needed) << 1);
+        }
+        ByteBuffer bytes = holder[0];
+        bytes.clear();
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(content), bytes, true);
+        if (!result.isError() && !result.isOverflow()) {
+            result = encoder.flush(bytes);
+        }
+        if (result.isError() || result.isOverflow()) {
+            throw new IOException("Could not encode payslip " + file.getFileName() + ": " + result);
+        }
+        bytes.flip();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
             }
         }
     }
     
-    @SuppressWarnings("unchecked")
-    private void loadAttendance() throws IOException, ClassNotFoundException {
-        File file = new File(DATA_DIR + "/attendance.dat");
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                attendanceRecords = (List<Attendance>) ois.readObject();
+    private void renderText(StringBuilder out, Salary sal, Employee emp, double[] att) {
+        String name = emp != null ? emp.getName() : "Unknown";
+        String position = emp != null ? emp.getPosition() : "";
+        out.append("PAYSLIP - ").append(sal.getMonth()).append(' ').append(sal.getYear()).append('\n');
+        out.append("==========================================\n");
+        out.append("Employee ID:   ").append(sal.getEmployeeId()).append('\n');
+        out.append("Name:          ").append(name).append('\n');
+        out.append("Position:      ").append(position).append('\n');
+        if (emp != null) {
+            out.append("Email:         ").append(emp.getEmail()).append('\n');
+            out.append("Joined:        ").append(emp.getJoinDate().format(DATE_FORMAT)).append('\n');
+        }
+        out.append("------------------------------------------\n");
+        out.append("Days Present:  ").append((int) att[0]).append('\n');
+        out.append("Days Absent:   ").append((int) att[1]).append('\n');
+        out.append("Hours Worked:  ");
+        appendAmount(out, att[2]).append('\n');
+        out.append("Days Worked:   ").append(sal.getDaysWorked()).append('\n');
+        out.append("Overtime Hrs:  ");
+        appendAmount(out, sal.getOvertimeHours()).append('\n');
+        out.append("------------------------------------------\n");
+        out.append("Pay Basis:     ").append(sal.getPayBasis() == Employee.PayBasis.HOURLY ? "Hourly" : "Salaried").append('\n');
+        out.append("Basic Salary:  $");
+        appendAmount(out, sal.getBasicSalary()).append('\n');
+        out.append("Overtime Pay:  $");
+        appendAmount(out, sal.getOvertimePay()).append('\n');
+        out.append("Allowances:    $");
+        appendAmount(out, sal.getAllowances()).append('\n');
+        out.append("Deductions:    $");
+        appendAmount(out, sal.getDeductions()).append('\n');
+        out.append("==========================================\n");
+        out.append("NET PAY:       $");
+        appendAmount(out, sal.getNetSalary()).append('\n');
+    }
+    
+    private void renderHtml(StringBuilder out, Salary sal, Employee emp, double[] att) {
+        out.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>Payslip ")
+                .append(sal.getEmployeeId()).append(' ').append(period).append("</title>\n")
+                .append("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse}")
+                .append("td{padding:4px 12px;border-bottom:1px solid #ddd}td.n{text-align:right}</style></head><body>\n");
+        out.append("<h2>Payslip - ").append(sal.getMonth()).append(' ').append(sal.getYear()).append("</h2>\n<table>\n");
+        row(out, "Employee ID", String.valueOf(sal.getEmployeeId()));
+        row(out, "Name", emp != null ? emp.getName() : "Unknown");
+        row(out, "Position", emp != null ? emp.getPosition() : "");
+        row(out, "Days Present", String.valueOf((int) att[0]));
+        row(out, "Days Absent", String.valueOf((int) att[1]));
+        row(out, "Hours Worked", String.format("%.2f", att[2]));
+        row(out, "Overtime Hours", String.format("%.2f", sal.getOvertimeHours()));
+        row(out, "Pay Basis", sal.getPayBasis() == Employee.PayBasis.HOURLY ? "Hourly" : "Salaried");
+        row(out, "Basic Salary", String.format("$%.2f", sal.getBasicSalary()));
+        row(out, "Overtime Pay", String.format("$%.2f (%.2f/h x %.1f)", sal.getOvertimePay(), sal.getHourlyRate(), Salary.OVERTIME_MULTIPLIER));
+        row(out, "Allowances", String.format("$%.2f", sal.getAllowances()));
+        row(out, "Deductions", String.format("$%.2f", sal.getDeductions()));
+        out.append("<tr><td><b>Net Pay</b></td><td class=\"n\"><b>$");
+        appendAmount(out, sal.getNetSalary()).append("</b></td></tr>\n");
+        out.append("</table>\n</body></html>\n");
+    }
+    
+    private static void row(StringBuilder out, String label, String value) {
+        out.append("<tr><td>").append(label).append("</td><td class=\"n\">");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                default -> out.append(c);
             }
         }
+        out.append("</td></tr>\n");
     }
     
-    @SuppressWarnings("unchecked")
-    private void loadSalaries() throws IOException, ClassNotFoundException {
-        File file = new File(DATA_DIR + "/salaries.dat");
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                salaryRecords = (List<Salary>) ois.readObject();
+    // Two-decimal formatting without String.format's per-call parsing
+    private static StringBuilder appendAmount(StringBuilder out, double value) {
+        long cents = Math.round(value * 100);
+        if (cents < 0) {
+            out.append('-');
+            cents = -cents;
+        }
+        out.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) out.append('0');
+        return out.append(fraction);
+    }
+}
+
+// Record Codec - the .dat files as a header followed by one length-prefixed binary frame per record
+class RecordCodec {
+    static final int MAGIC = 0x50524543; // "PREC"
+    static final int VERSION = 5; // 2 added the salary hours and overtime breakdown, 3 the attendance and salary record ids, 4 the pay basis, 5 the salary position
+    static final byte EMPLOYEE = 1;
+    static final byte ATTENDANCE = 2;
+    static final byte SALARY = 3;
+    // Counts come from files and sockets, so a corrupt one must not size an allocation; lists grow past this
+    static final int MAX_PRESIZE = 1 << 16;
+    
+    interface Encoder<T> {
+        void encode(T record, DataOutputStream out) throws IOException;
+    }
+    
+    interface Decoder<T> {
+        T decode(ByteBuffer frame, Map<String, String> strings);
+    }
+    
+    static <T> void write(OutputStream target, byte type, List<T> records, Encoder<T> encoder) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(type);
+        out.writeInt(records.size());
+        for (T record : records) {
+            frame.reset();
+            encoder.encode(record, frameOut);
+            out.writeInt(frame.size());
+            frame.writeTo(out);
+        }
+        out.flush();
+    }
+    
+    /** Framed files start with MAGIC; anything else is a legacy serialized List. */
+    static boolean isFramed(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+    
+    /**
+     * Streams records one frame at a time through a single reusable buffer, handing each to the
+     * sink as soon as it is decoded. The record count from the header, capped at MAX_PRESIZE, is
+     * passed to sizeHint first so the destination list usually starts at its final size.
+     */
+    static <T> void read(InputStream source, byte type, Decoder<T> decoder,
+                         IntConsumer sizeHint, Consumer<T> sink) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(source, 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a framed record file");
+        }
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("Unsupported record file version " + version);
+        }
+        if (in.readByte() != type) {
+            throw new IOException("Record file holds a different record type");
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt record count " + count);
+        }
+        sizeHint.accept(Math.min(count, MAX_PRESIZE));
+        
+        // Strings such as positions and month names repeat across records and are shared
+        Map<String, String> strings = new HashMap<>();
+        ByteBuffer frame = ByteBuffer.allocate(256);
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt frame length at record " + i);
+            }
+            if (frame.capacity() < length) {
+                frame = ByteBuffer.allocate(Integer.highestOneBit(length) << 1);
+            }
+            in.readFully(frame.array(), 0, length);
+            frame.clear().limit(length);
+            T record = decoder.decode(frame, strings);
+            if (frame.hasRemaining()) {
+                throw new IOException("Corrupt frame at record " + i);
             }
+            sink.accept(record);
         }
     }
     
-    // Employee Management
-    public void addEmployee(Employee employee) {
-        employees.add(employee);
-        saveData();
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
     }
     
-    public void updateEmployee(Employee employee) {
-        for (int i = 0; i < employees.size(); i++) {
-            if (employees.get(i).getId() == employee.getId()) {
-                employees.set(i, employee);
-                break;
+    static String readString(ByteBuffer in, Map<String, String> strings) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        String shared = strings.putIfAbsent(value, value);
+        return shared != null ? shared : value;
+    }
+    
+    static void encodeEmployee(Employee emp, DataOutputStream out) throws IOException {
+        out.writeInt(emp.getId());
+        writeString(out, emp.getName());
+        writeString(out, emp.getPosition());
+        out.writeDouble(emp.getBaseSalary());
+        writeString(out, emp.getEmail());
+        writeString(out, emp.getPhone());
+        out.writeLong(emp.getJoinDate().toEpochDay());
+        out.writeByte(emp.getPayBasis().ordinal());
+    }
+    
+    static Employee decodeEmployee(ByteBuffer in, Map<String, String> strings) {
+        int id = in.getInt();
+        String name = readString(in, strings);
+        String position = readString(in, strings);
+        double baseSalary = in.getDouble();
+        String email = readString(in, strings);
+        String phone = readString(in, strings);
+        Employee emp = new Employee(id, name, position, baseSalary, email, phone);
+        emp.setJoinDate(LocalDate.ofEpochDay(in.getLong()));
+        // Frames before version 4 end without a pay basis
+        if (in.hasRemaining()) {
+            emp.setPayBasis(Employee.PayBasis.values()[in.get()]);
+        }
+        return emp;
+    }
+    
+    static void encodeAttendance(Attendance att, DataOutputStream out) throws IOException {
+        out.writeInt(att.getEmployeeId());
+        out.writeLong(att.getDate().toEpochDay());
+        out.writeBoolean(att.isPresent());
+        out.writeDouble(att.getHoursWorked());
+        out.writeLong(att.getId());
+    }
+    
+    static Attendance decodeAttendance(ByteBuffer in, Map<String, String> strings) {
+        int employeeId = in.getInt();
+        LocalDate date = LocalDate.ofEpochDay(in.getLong());
+        boolean present = in.get() != 0;
+        Attendance att = new Attendance(employeeId, date, present, in.getDouble());
+        // Frames before version 3 end without a record id
+        if (in.hasRemaining()) {
+            att.setId(in.getLong());
+        }
+        return att;
+    }
+    
+    static void encodeSalary(Salary sal, DataOutputStream out) throws IOException {
+        out.writeInt(sal.getEmployeeId());
+        writeString(out, sal.getMonth());
+        out.writeInt(sal.getYear());
+        out.writeDouble(sal.getBasicSalary());
+        out.writeDouble(sal.getAllowances());
+        out.writeDouble(sal.getDeductions());
+        out.writeDouble(sal.getNetSalary());
+        out.writeInt(sal.getDaysWorked());
+        out.writeDouble(sal.getHoursWorked());
+        out.writeDouble(sal.getOvertimeHours());
+        out.writeDouble(sal.getHourlyRate());
+        out.writeDouble(sal.getOvertimePay());
+        out.writeLong(sal.getId());
+        out.writeByte(sal.getPayBasis().ordinal());
+        writeString(out, sal.getPosition());
+    }
+    
+    static Salary decodeSalary(ByteBuffer in, Map<String, String> strings) {
+        int employeeId = in.getInt();
+        String month = readString(in, strings);
+        int year = in.getInt();
+        double basic = in.getDouble();
+        double allowances = in.getDouble();
+        double deductions = in.getDouble();
+        double net = in.getDouble();
+        int daysWorked = in.getInt();
+        Salary sal;
+        // Version 1 frames end at daysWorked
+        if (in.hasRemaining()) {
+            sal = new Salary(employeeId, month, year, basic, allowances, deductions, daysWorked, in.getDouble(), in.getDouble());
+            sal.setHourlyRate(in.getDouble());
+            sal.setOvertimePay(in.getDouble());
+            if (in.hasRemaining()) {
+                sal.setId(in.getLong());
+            }
+            if (in.hasRemaining()) {
+                sal.setPayBasis(Employee.PayBasis.values()[in.get()]);
+            }
+            if (in.hasRemaining()) {
+                sal.setPosition(readString(in, strings));
+            }
+        } else {
+            sal = new Salary(employeeId, month, year, basic, allowances, deductions, daysWorked);
+        }
+        sal.setNetSalary(net);
+        return sal;
+    }
+}
+
+// Snapshot File - written to a temp file in CRC32C-checked blocks, fsync'd once and renamed over the live file
+class SnapshotFile {
+    static final int BLOCK_SIZE = 1 << 20;
+    private static final int FOOTER_MAGIC = 0x534E4150; // "SNAP"
+    private static final int FOOTER_SIZE = 24;
+    
+    private static final ThreadLocal<ByteBuffer> VERIFY_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BLOCK_SIZE));
+    
+    interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+    
+    /**
+     * Writes the body as data blocks followed by a table of per-block CRC32C values and a fixed
+     * footer. Readers that know nothing of the footer still see the body unchanged. The live file
+     * is only ever replaced by rename, so a crash leaves either the old or the new snapshot; the
+     * old one is kept as a hard-linked .prev for recovery from later media corruption.
+     */
+    static void write(Path target, Body body) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BlockWriter writer = new BlockWriter(channel);
+            body.writeTo(writer);
+            writer.finish();
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        Path previous = previousOf(target);
+        if (Files.exists(target)) {
+            try {
+                Files.deleteIfExists(previous);
+                Files.createLink(previous, target);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Filesystems without hard links simply keep no previous generation
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        DurableFiles.syncDirectory(target.toAbsolutePath().getParent());
+    }
+    
+    static Path previousOf(Path target) {
+        return target.resolveSibling(target.getFileName() + ".prev");
+    }
+    
+    /**
+     * Checks every block against its stored CRC32C. Blocks are independent, so they are read with
+     * positional reads on one channel from a parallel stream. Returns the number of blocks checked,
+     * or -1 for a file written before block checksums, which cannot be verified.
+     */
+    static int verify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                return -1;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            readFully(channel, footer, size - FOOTER_SIZE);
+            footer.flip();
+            int blockSize = footer.getInt();
+            int blockCount = footer.getInt();
+            long dataLength = footer.getLong();
+            int tableCrc = footer.getInt();
+            if (footer.getInt() != FOOTER_MAGIC) {
+                return -1;
+            }
+            if (blockSize <= 0 || blockSize > BLOCK_SIZE || blockCount < 0
+                    || dataLength + blockCount * 4L + FOOTER_SIZE != size
+                    || blockCount != (dataLength + blockSize - 1) / blockSize) {
+                throw new IOException("Snapshot " + file + " is truncated or has a damaged footer");
+            }
+            
+            ByteBuffer table = ByteBuffer.allocate(blockCount * 4);
+            readFully(channel, table, dataLength);
+            table.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(table.duplicate());
+            if ((int) crc.getValue() != tableCrc) {
+                throw new IOException("Checksum table of snapshot " + file + " is damaged");
+            }
+            int[] expected = new int[blockCount];
+            table.asIntBuffer().get(expected);
+            
+            OptionalInt bad;
+            try {
+                bad = IntStream.range(0, blockCount).parallel()
+                        .filter(i -> blockChecksum(channel, (long) i * blockSize, (int) Math.min(blockSize, dataLength - (long) i * blockSize)) != expected[i])
+                        .findFirst();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (bad.isPresent()) {
+                throw new IOException("Checksum mismatch in block " + bad.getAsInt() + " of snapshot " + file);
+            }
+            return blockCount;
+        }
+    }
+    
+    private static int blockChecksum(FileChannel channel, long position, int length) {
+        ByteBuffer buffer = VERIFY_BUFFER.get();
+        buffer.clear().limit(length);
+        try {
+            readFully(channel, buffer, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+    
+    // Fills one direct block buffer at a time, checksums it and writes it to the channel
+    private static class BlockWriter extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private int[] checksums = new int[16];
+        private int blockCount;
+        private long dataLength;
+        
+        BlockWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            if (!block.hasRemaining()) {
+                flushBlock();
+            }
+            block.put((byte) b);
+        }
+        
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!block.hasRemaining()) {
+                    flushBlock();
+                }
+                int n = Math.min(length, block.remaining());
+                block.put(bytes, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+        
+        private void flushBlock() throws IOException {
+            block.flip();
+            crc.reset();
+            crc.update(block.duplicate());
+            if (blockCount == checksums.length) {
+                checksums = Arrays.copyOf(checksums, blockCount * 2);
+            }
+            checksums[blockCount++] = (int) crc.getValue();
+            dataLength += block.remaining();
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+            block.clear();
+        }
+        
+        void finish() throws IOException {
+            if (block.position() > 0) {
+                flushBlock();
+            }
+            ByteBuffer table = ByteBuffer.allocate(blockCount * 4);
+            table.asIntBuffer().put(checksums, 0, blockCount);
+            crc.reset();
+            crc.update(table.duplicate());
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putInt(BLOCK_SIZE).putInt(blockCount).putLong(dataLength).putInt((int) crc.getValue()).putInt(FOOTER_MAGIC);
+            footer.flip();
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+            while (footer.hasRemaining()) {
+                channel.write(footer);
+            }
+        }
+    }
+}
+
+// Id Sequence - monotonic ids handed out from blocks whose upper bound is persisted before any id in it is used
+class IdSequence {
+    private static final int BLOCK_SIZE = 1000;
+    
+    private final Path file;
+    private long next;
+    private long limit;
+    
+    /**
+     * Starts from the persisted bound, or from floor when that is higher, e.g. the first run
+     * after upgrading from max-scan ids. A null file gives an in-memory sequence for a replica.
+     */
+    IdSequence(Path file, long floor) {
+        this.file = file;
+        long stored = 1;
+        if (file != null && Files.exists(file)) {
+            try {
+                SnapshotFile.verify(file);
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                    stored = in.readLong();
+                }
+            } catch (IOException e) {
+                System.err.println("Id sequence " + file + " is unreadable, continuing from the highest loaded id: " + e.getMessage());
+            }
+        }
+        next = limit = Math.max(stored, Math.max(1, floor));
+    }
+    
+    public synchronized long next() {
+        return reserve(1);
+    }
+    
+    /**
+     * Reserves count consecutive ids and returns the first, so a bulk import takes a whole range
+     * at once. Ids left unused in a block when the process stops are skipped, never reused.
+     */
+    public synchronized long reserve(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        if (next + count > limit) {
+            persist(next + Math.max(count, BLOCK_SIZE));
+        }
+        long first = next;
+        next += count;
+        return first;
+    }
+    
+    /** Moves the sequence past an id assigned elsewhere, e.g. by a primary or an explicit import. */
+    public synchronized void advancePast(long id) {
+        if (id >= next) {
+            next = id + 1;
+            if (next > limit) {
+                persist(next + BLOCK_SIZE);
+            }
+        }
+    }
+    
+    private void persist(long newLimit) {
+        if (file != null) {
+            try {
+                SnapshotFile.write(file, out -> {
+                    DataOutputStream data = new DataOutputStream(out);
+                    data.writeLong(newLimit);
+                    data.flush();
+                });
+            } catch (IOException e) {
+                // Handing out ids beyond the persisted bound could reuse them after a restart
+                throw new UncheckedIOException("Could not persist id sequence " + file, e);
+            }
+        }
+        limit = newLimit;
+    }
+}
+
+// Data Manager
+class DataManager {
+    private List<Employee> employees;
+    private List<Attendance> attendanceRecords;
+    private List<Salary> salaryRecords;
+    static final Path DEFAULT_DATA_DIR = Paths.get("payroll_data");
+    private final Path dataDir;
+    
+    // Indexes over the record lists, rebuilt on load and kept in step with every mutation
+    private final Map<Integer, Employee> employeeIndex = new HashMap<>();
+    private final Map<String, List<Employee>> employeesByPosition = new HashMap<>();
+    private final Map<Integer, List<Attendance>> attendanceByEmployee = new HashMap<>();
+    private final NavigableMap<YearMonth, List<Attendance>> attendanceByMonth = new TreeMap<>();
+    private final Map<YearMonth, Map<Integer, MonthlyHours>> hoursByMonth = new HashMap<>();
+    private final Map<Integer, List<Salary>> salariesByEmployee = new HashMap<>();
+    private final NavigableMap<YearMonth, List<Salary>> salariesByMonth = new TreeMap<>();
+    
+    // Cost by (year, month, position), maintained incrementally as salaries are recorded
+    private RollupCube rollups;
+    
+    // Id sequences for new employees and records
+    private IdSequence employeeIds;
+    private IdSequence attendanceIds;
+    private IdSequence salaryIds;
+    
+    // Bumped on every save, which every mutation ends with; the API server derives ETags from it
+    private long version;
+    // The version restarts at 0 with every load, so ETags also carry this random per-load value
+    private final long epoch = new Random().nextLong();
+    
+    // Sealed months; their records live only in the segment files and are read on demand
+    private final NavigableMap<YearMonth, PeriodSegment> closedPeriods = new TreeMap<>();
+    
+    // Archived attendance years; decompressed only when a query or audit asks for them
+    private final NavigableMap<Integer, AttendanceArchive> archivedYears = new TreeMap<>();
+    
+    // Replication: every mutation gets the next log sequence number and is handed to the listeners
+    private final List<MutationListener> mutationListeners = new ArrayList<>();
+    private long mutationLsn;
+    private final boolean replica;
+    private boolean applyingReplicated;
+    
+    public DataManager() {
+        this(DEFAULT_DATA_DIR);
+    }
+    
+    /** A store rooted at its own directory, e.g. one company's shard under a TenantRegistry. */
+    public DataManager(Path dataDir) {
+        this(dataDir, false);
+    }
+    
+    private DataManager(Path dataDir, boolean replica) {
+        this.dataDir = dataDir;
+        this.replica = replica;
+        employees = new ArrayList<>();
+        attendanceRecords = new ArrayList<>();
+        salaryRecords = new ArrayList<>();
+        if (replica) {
+            rollups = new RollupCube();
+            openSequences();
+            return;
+        }
+        createDataDirectory();
+        loadClosedPeriods();
+        loadArchives();
+        loadData();
+        loadRollups();
+        openSequences();
+    }
+    
+    /**
+     * Ids must never be reused, so the floor under each sequence also covers the ids sealed into
+     * period segments and attendance archives. Current files carry their maxima in the header;
+     * older ones are read once here, given ids for any records that predate them, and rewritten.
+     */
+    private void openSequences() {
+        long maxEmployee = 0, maxAttendance = 0, maxSalary = 0;
+        int unassigned = 0;
+        for (Employee emp : employees) {
+            maxEmployee = Math.max(maxEmployee, emp.getId());
+        }
+        for (Attendance att : attendanceRecords) {
+            maxAttendance = Math.max(maxAttendance, att.getId());
+            if (att.getId() == 0) unassigned++;
+        }
+        for (Salary sal : salaryRecords) {
+            maxSalary = Math.max(maxSalary, sal.getId());
+            if (sal.getId() == 0) unassigned++;
+        }
+        
+        Map<PeriodSegment, List<Attendance>> oldSegmentAttendance = new LinkedHashMap<>();
+        Map<PeriodSegment, List<Salary>> oldSegmentSalaries = new HashMap<>();
+        for (PeriodSegment segment : new ArrayList<>(closedPeriods.values())) {
+            if (segment.isCurrentFormat()) {
+                maxAttendance = Math.max(maxAttendance, segment.getMaxAttendanceId());
+                maxSalary = Math.max(maxSalary, segment.getMaxSalaryId());
+                continue;
+            }
+            try {
+                List<Attendance> attendance = segment.readAttendance();
+                List<Salary> salaries = segment.readSalaries();
+                for (Attendance att : attendance) maxAttendance = Math.max(maxAttendance, att.getId());
+                for (Salary sal : salaries) maxSalary = Math.max(maxSalary, sal.getId());
+                oldSegmentAttendance.put(segment, attendance);
+                oldSegmentSalaries.put(segment, salaries);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable period segment " + segment.getPeriod() + ": " + e.getMessage());
+                closedPeriods.remove(segment.getPeriod());
+            }
+        }
+        Map<AttendanceArchive, List<Attendance>> oldArchives = new LinkedHashMap<>();
+        for (AttendanceArchive archive : new ArrayList<>(archivedYears.values())) {
+            if (archive.isCurrentFormat()) {
+                maxAttendance = Math.max(maxAttendance, archive.getMaxId());
+                continue;
+            }
+            try {
+                List<Attendance> attendance = archive.readAttendance();
+                for (Attendance att : attendance) maxAttendance = Math.max(maxAttendance, att.getId());
+                oldArchives.put(archive, attendance);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable attendance archive " + archive.getYear() + ": " + e.getMessage());
+                archivedYears.remove(archive.getYear());
+            }
+        }
+        
+        employeeIds = new IdSequence(replica ? null : dataDir.resolve("employee.seq"), maxEmployee + 1);
+        attendanceIds = new IdSequence(replica ? null : dataDir.resolve("attendance.seq"), maxAttendance + 1);
+        salaryIds = new IdSequence(replica ? null : dataDir.resolve("salary.seq"), maxSalary + 1);
+        if (replica) {
+            return;
+        }
+        
+        // Records saved before they carried ids get them once, and keep them from the next save on
+        if (unassigned > 0) {
+            for (Attendance att : attendanceRecords) {
+                if (att.getId() == 0) att.setId(attendanceIds.next());
+            }
+            for (Salary sal : salaryRecords) {
+                if (sal.getId() == 0) sal.setId(salaryIds.next());
+            }
+            saveData();
+        }
+        for (Map.Entry<PeriodSegment, List<Attendance>> entry : oldSegmentAttendance.entrySet()) {
+            PeriodSegment segment = entry.getKey();
+            List<Salary> salaries = oldSegmentSalaries.get(segment);
+            for (Attendance att : entry.getValue()) {
+                if (att.getId() == 0) att.setId(attendanceIds.next());
+            }
+            for (Salary sal : salaries) {
+                if (sal.getId() == 0) sal.setId(salaryIds.next());
+            }
+            try {
+                closedPeriods.put(segment.getPeriod(), segment.rewrite(entry.getValue(), salaries));
+            } catch (IOException e) {
+                System.err.println("Error upgrading period segment " + segment.getPeriod() + ": " + e.getMessage());
+            }
+        }
+        for (Map.Entry<AttendanceArchive, List<Attendance>> entry : oldArchives.entrySet()) {
+            AttendanceArchive archive = entry.getKey();
+            for (Attendance att : entry.getValue()) {
+                if (att.getId() == 0) att.setId(attendanceIds.next());
+            }
+            try {
+                archivedYears.put(archive.getYear(), archive.rewrite(entry.getValue()));
+            } catch (IOException e) {
+                System.err.println("Error upgrading attendance archive " + archive.getYear() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /** An in-memory, read-only store that is only changed by mutations shipped from a primary. */
+    public static DataManager newReplica() {
+        return new DataManager(DEFAULT_DATA_DIR, true);
+    }
+    
+    private void createDataDirectory() {
+        try {
+            Files.createDirectories(dataDir);
+        } catch (IOException e) {
+            System.err.println("Error creating data directory: " + e.getMessage());
+        }
+    }
+    
+    public synchronized void saveData() {
+        version++;
+        if (replica) {
+            return;
+        }
+        try {
+            saveEmployees();
+            saveAttendance();
+            saveSalaries();
+            saveRollups();
+        } catch (IOException e) {
+            if (GraphicsEnvironment.isHeadless()) {
+                System.err.println("Error saving data: " + e.getMessage());
+            } else {
+                JOptionPane.showMessageDialog(null, "Error saving data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+    
+    // Each file is replaced atomically, so a crash mid-save leaves the previous snapshot intact
+    private void saveEmployees() throws IOException {
+        SnapshotFile.write(dataDir.resolve("employees.dat"),
+                out -> RecordCodec.write(out, RecordCodec.EMPLOYEE, employees, RecordCodec::encodeEmployee));
+    }
+    
+    private void saveAttendance() throws IOException {
+        SnapshotFile.write(dataDir.resolve("attendance.dat"),
+                out -> RecordCodec.write(out, RecordCodec.ATTENDANCE, attendanceRecords, RecordCodec::encodeAttendance));
+    }
+    
+    private void saveSalaries() throws IOException {
+        SnapshotFile.write(dataDir.resolve("salaries.dat"),
+                out -> RecordCodec.write(out, RecordCodec.SALARY, salaryRecords, RecordCodec::encodeSalary));
+    }
+    
+    private void saveRollups() throws IOException {
+        SnapshotFile.write(dataDir.resolve("rollups.dat"), out -> {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(rollups);
+            oos.flush();
+        });
+    }
+    
+    /**
+     * Returns the snapshot to load after checking its block checksums. A damaged file is moved
+     * aside as .corrupt, so the next save neither overwrites it nor links it over the previous
+     * generation, and the previous generation is restored in its place when it verifies.
+     */
+    private File verifiedSnapshot(String name) {
+        Path file = dataDir.resolve(name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            SnapshotFile.verify(file);
+            return file.toFile();
+        } catch (IOException e) {
+            System.err.println("Snapshot " + file + " failed verification: " + e.getMessage());
+        }
+        boolean movedAside = false;
+        try {
+            Files.move(file, file.resolveSibling(name + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+            movedAside = true;
+        } catch (IOException e) {
+            System.err.println("Could not move aside " + file + ": " + e.getMessage());
+        }
+        Path previous = SnapshotFile.previousOf(file);
+        if (!Files.exists(previous)) {
+            return null;
+        }
+        try {
+            SnapshotFile.verify(previous);
+        } catch (IOException e) {
+            System.err.println("Previous snapshot " + previous + " failed verification: " + e.getMessage());
+            return null;
+        }
+        // The damaged file is still in place, so load the previous generation without restoring it
+        if (!movedAside) {
+            System.err.println("Loading " + name + " from the previous snapshot " + previous);
+            return previous.toFile();
+        }
+        try {
+            Files.copy(previous, file);
+            System.err.println("Recovered " + name + " from the previous snapshot");
+            return file.toFile();
+        } catch (IOException e) {
+            System.err.println("Could not restore " + file + " from " + previous + ": " + e.getMessage());
+            return previous.toFile();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void loadData() {
+        try {
+            loadEmployees();
+            loadAttendance();
+            loadSalaries();
+        } catch (Exception e) {
+            // First run or corrupted data, start fresh
+            System.out.println("Starting with fresh data...");
+        }
+    }
+    
+    // Loaders stream one record at a time into the lists and indexes, so peak heap stays close to the loaded size
+    private void loadEmployees() throws IOException, ClassNotFoundException {
+        File file = verifiedSnapshot("employees.dat");
+        if (file != null) {
+            loadRecords(file, RecordCodec.EMPLOYEE, RecordCodec::decodeEmployee,
+                    n -> employees = new ArrayList<>(n),
+                    emp -> {
+                        employees.add(emp);
+                        indexEmployee(emp);
+                    });
+        }
+    }
+    
+    private void loadAttendance() throws IOException, ClassNotFoundException {
+        File file = verifiedSnapshot("attendance.dat");
+        if (file != null) {
+            loadRecords(file, RecordCodec.ATTENDANCE, RecordCodec::decodeAttendance,
+                    n -> attendanceRecords = new ArrayList<>(n),
+                    att -> {
+                        // The segment is authoritative for a closed month, e.g. after a crash between sealing and the next save
+                        if (!closedPeriods.containsKey(att.getPeriod()) && !archivedYears.containsKey(att.getDate().getYear())) {
+                            attendanceRecords.add(att);
+                            indexAttendance(att);
+                        }
+                    });
+        }
+    }
+    
+    private void loadSalaries() throws IOException, ClassNotFoundException {
+        File file = verifiedSnapshot("salaries.dat");
+        if (file != null) {
+            loadRecords(file, RecordCodec.SALARY, RecordCodec::decodeSalary,
+                    n -> salaryRecords = new ArrayList<>(n),
+                    sal -> {
+                        if (!closedPeriods.containsKey(sal.getPeriod())) {
+                            salaryRecords.add(sal);
+                            indexSalary(sal);
+                        }
+                    });
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> void loadRecords(File file, byte type, RecordCodec.Decoder<T> decoder,
+                                 IntConsumer sizeHint, Consumer<T> sink)
+            throws IOException, ClassNotFoundException {
+        if (RecordCodec.isFramed(file)) {
+            try (InputStream in = new FileInputStream(file)) {
+                RecordCodec.read(in, type, decoder, sizeHint, sink);
+            }
+        } else {
+            // Legacy whole-list serialization; the next save rewrites it in the framed format
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                List<T> legacy = (List<T>) ois.readObject();
+                sizeHint.accept(legacy.size());
+                legacy.forEach(sink);
+            }
+        }
+    }
+    
+    private Path periodsDir() {
+        return dataDir.resolve("periods");
+    }
+    
+    private void loadClosedPeriods() {
+        if (!Files.isDirectory(periodsDir())) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(periodsDir(), "*.seg")) {
+            for (Path file : files) {
+                try {
+                    PeriodSegment segment = PeriodSegment.open(file);
+                    closedPeriods.put(segment.getPeriod(), segment);
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable period segment " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading closed periods: " + e.getMessage());
+        }
+    }
+    
+    private Path archiveDir() {
+        return dataDir.resolve("archive");
+    }
+    
+    private void loadArchives() {
+        if (!Files.isDirectory(archiveDir())) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(archiveDir(), "*.arc")) {
+            for (Path file : files) {
+                try {
+                    AttendanceArchive archive = AttendanceArchive.open(file);
+                    archivedYears.put(archive.getYear(), archive);
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable attendance archive " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading attendance archives: " + e.getMessage());
+        }
+    }
+    
+    private void loadRollups() {
+        File file = verifiedSnapshot("rollups.dat");
+        if (file != null) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                rollups = (RollupCube) ois.readObject();
+            } catch (Exception e) {
+                System.out.println("Rollup cube unreadable, rebuilding...");
+                rollups = null;
+            }
+        }
+        // Rebuild when the cube is missing or out of step with the salary records
+        long sealedSalaries = closedPeriods.values().stream().mapToLong(PeriodSegment::getSalaryCount).sum();
+        if (rollups == null || rollups.getSalaryCount() != salaryRecords.size() + sealedSalaries) {
+            rollups = new RollupCube();
+            for (Salary sal : salaryRecords) {
+                rollups.add(sal, rollupPosition(sal));
+            }
+            for (PeriodSegment segment : closedPeriods.values()) {
+                try {
+                    for (Salary sal : segment.readSalaries()) {
+                        rollups.add(sal, rollupPosition(sal));
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading sealed period " + segment.getPeriod() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private String positionOf(int employeeId) {
+        Employee emp = employeeIndex.get(employeeId);
+        return emp != null ? emp.getPosition() : "Unknown";
+    }
+    
+    /**
+     * Salaries are filed under the position recorded with them, so a rebuilt cube matches the one
+     * kept up by addSalary. Records from before the position was kept fall back to the current one.
+     */
+    private String rollupPosition(Salary salary) {
+        return salary.getPosition() != null ? salary.getPosition() : positionOf(salary.getEmployeeId());
+    }
+    
+    private void rebuildIndexes() {
+        reindexEmployees();
+        attendanceByEmployee.clear();
+        attendanceByMonth.clear();
+        hoursByMonth.clear();
+        for (Attendance att : attendanceRecords) {
+            indexAttendance(att);
+        }
+        salariesByEmployee.clear();
+        salariesByMonth.clear();
+        for (Salary sal : salaryRecords) {
+            indexSalary(sal);
+        }
+    }
+    
+    private void reindexEmployees() {
+        employeeIndex.clear();
+        employeesByPosition.clear();
+        for (Employee emp : employees) {
+            indexEmployee(emp);
+        }
+    }
+    
+    private void indexEmployee(Employee emp) {
+        employeeIndex.put(emp.getId(), emp);
+        employeesByPosition.computeIfAbsent(positionKey(emp.getPosition()), k -> new ArrayList<>()).add(emp);
+    }
+    
+    private void indexAttendance(Attendance att) {
+        attendanceByEmployee.computeIfAbsent(att.getEmployeeId(), k -> new ArrayList<>()).add(att);
+        attendanceByMonth.computeIfAbsent(att.getPeriod(), k -> new ArrayList<>()).add(att);
+        hoursByMonth.computeIfAbsent(att.getPeriod(), k -> new HashMap<>())
+                .computeIfAbsent(att.getEmployeeId(), k -> new MonthlyHours()).add(att);
+    }
+    
+    private void indexSalary(Salary sal) {
+        salariesByEmployee.computeIfAbsent(sal.getEmployeeId(), k -> new ArrayList<>()).add(sal);
+        salariesByMonth.computeIfAbsent(sal.getPeriod(), k -> new ArrayList<>()).add(sal);
+    }
+    
+    static String positionKey(String position) {
+        return position == null ? "" : position.trim().toLowerCase();
+    }
+    
+    // Employee Management
+    public synchronized void addEmployee(Employee employee) {
+        checkWritable();
+        employeeIds.advancePast(employee.getId());
+        employees.add(employee);
+        indexEmployee(employee);
+        publish(Mutation.Type.EMPLOYEE_ADD, employee);
+        saveData();
+    }
+    
+    public synchronized void updateEmployee(Employee employee) {
+        checkWritable();
+        for (int i = 0; i < employees.size(); i++) {
+            if (employees.get(i).getId() == employee.getId()) {
+                employees.set(i, employee);
+                break;
+            }
+        }
+        // The position may have changed, so the position index is rebuilt
+        reindexEmployees();
+        publish(Mutation.Type.EMPLOYEE_UPDATE, employee);
+        saveData();
+    }
+    
+    public synchronized void deleteEmployee(int id) {
+        checkWritable();
+        employees.removeIf(emp -> emp.getId() == id);
+        reindexEmployees();
+        publish(Mutation.Type.EMPLOYEE_DELETE, id);
+        saveData();
+    }
+    
+    public synchronized List<Employee> getAllEmployees() {
+        return new ArrayList<>(employees);
+    }
+    
+    public synchronized Employee getEmployeeById(int id) {
+        return employeeIndex.get(id);
+    }
+    
+    public synchronized List<Employee> getEmployeesByPosition(String position) {
+        return new ArrayList<>(employeesByPosition.getOrDefault(positionKey(position), Collections.emptyList()));
+    }
+    
+    /** Takes the next employee id from the persisted sequence; ids are never handed out twice. */
+    public synchronized int allocateEmployeeId() {
+        return Math.toIntExact(employeeIds.next());
+    }
+    
+    // Attendance Management
+    public synchronized void addAttendance(Attendance attendance) {
+        checkWritable();
+        checkOpen(attendance.getPeriod());
+        checkNotArchived(attendance.getDate().getYear());
+        assignId(attendance);
+        attendanceRecords.add(attendance);
+        indexAttendance(attendance);
+        publish(Mutation.Type.ATTENDANCE_ADD, attendance);
+        saveData();
+    }
+    
+    /**
+     * Records a whole day in one batch with a single write. Existing records for the
+     * same employees on that date are replaced rather than duplicated.
+     */
+    public synchronized void addAttendanceBatch(LocalDate date, List<Attendance> batch) {
+        checkWritable();
+        checkOpen(YearMonth.from(date));
+        checkNotArchived(date.getYear());
+        Set<Integer> ids = new HashSet<>();
+        for (Attendance att : batch) {
+            if (!att.getDate().equals(date)) {
+                throw new IllegalArgumentException("Batch record for employee " + att.getEmployeeId() + " is not dated " + date);
+            }
+            ids.add(att.getEmployeeId());
+        }
+        // The whole day takes one reserved range of record ids
+        int unassigned = (int) batch.stream().filter(att -> att.getId() == 0).count();
+        long nextId = unassigned > 0 ? attendanceIds.reserve(unassigned) : 0;
+        for (Attendance att : batch) {
+            if (att.getId() == 0) {
+                att.setId(nextId++);
+            } else {
+                attendanceIds.advancePast(att.getId());
+            }
+        }
+        boolean replaced = attendanceRecords.removeIf(att -> att.getDate().equals(date) && ids.contains(att.getEmployeeId()));
+        attendanceRecords.addAll(batch);
+        if (replaced) {
+            rebuildIndexes();
+        } else {
+            for (Attendance att : batch) {
+                indexAttendance(att);
+            }
+        }
+        publish(Mutation.Type.ATTENDANCE_BATCH, new ArrayList<>(batch));
+        saveData();
+    }
+    
+    public synchronized List<Attendance> getAttendanceByEmployee(int employeeId) {
+        return new ArrayList<>(attendanceByEmployee.getOrDefault(employeeId, Collections.emptyList()));
+    }
+    
+    public synchronized List<Attendance> getAttendanceBetween(YearMonth from, YearMonth to) {
+        List<Attendance> result = new ArrayList<>();
+        for (List<Attendance> partition : attendanceByMonth.subMap(from, true, to, true).values()) {
+            result.addAll(partition);
+        }
+        return result;
+    }
+    
+    /** The employee's attendance totals for the month, read from the maintained aggregates. */
+    public synchronized MonthlyHours getMonthlyHours(int employeeId, YearMonth period) {
+        if (archivedYears.containsKey(period.getYear())) {
+            return getMonthlyHours(period).getOrDefault(employeeId, new MonthlyHours());
+        }
+        MonthlyHours hours = hoursByMonth.getOrDefault(period, Collections.emptyMap()).get(employeeId);
+        return hours != null ? hours.copy() : new MonthlyHours();
+    }
+    
+    /** Every employee's attendance totals for the month, for computing the whole payroll at once. */
+    public synchronized Map<Integer, MonthlyHours> getMonthlyHours(YearMonth period) {
+        Map<Integer, MonthlyHours> result = new HashMap<>();
+        if (archivedYears.containsKey(period.getYear())) {
+            // An archived year is no longer aggregated, so its month is summed from the archive in one pass
+            try {
+                for (Attendance att : readArchivedAttendance(period, period)) {
+                    result.computeIfAbsent(att.getEmployeeId(), k -> new MonthlyHours()).add(att);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+        for (Map.Entry<Integer, MonthlyHours> entry : hoursByMonth.getOrDefault(period, Collections.emptyMap()).entrySet()) {
+            result.put(entry.getKey(), entry.getValue().copy());
+        }
+        return result;
+    }
+    
+    public synchronized int getEmployeeCount() {
+        return employees.size();
+    }
+    
+    public synchronized int getAttendanceCount() {
+        return attendanceRecords.size();
+    }
+    
+    public synchronized int getSalaryCount() {
+        return salaryRecords.size();
+    }
+    
+    public synchronized List<Attendance> getAllAttendance() {
+        return new ArrayList<>(attendanceRecords);
+    }
+    
+    // Salary Management
+    public synchronized void addSalary(Salary salary) {
+        checkWritable();
+        checkOpen(salary.getPeriod());
+        if (salary.getId() == 0) {
+            salary.setId(salaryIds.next());
+        } else {
+            salaryIds.advancePast(salary.getId());
+        }
+        salaryRecords.add(salary);
+        if (salary.getPosition() == null) {
+            salary.setPosition(positionOf(salary.getEmployeeId()));
+        }
+        indexSalary(salary);
+        rollups.add(salary, rollupPosition(salary));
+        publish(Mutation.Type.SALARY_ADD, salary);
+        saveData();
+    }
+    
+    public synchronized List<Salary> getSalariesByEmployee(int employeeId) {
+        return new ArrayList<>(salariesByEmployee.getOrDefault(employeeId, Collections.emptyList()));
+    }
+    
+    public synchronized List<Salary> getSalariesBetween(YearMonth from, YearMonth to) {
+        List<Salary> result = new ArrayList<>();
+        for (List<Salary> partition : salariesByMonth.subMap(from, true, to, true).values()) {
+            result.addAll(partition);
+        }
+        return result;
+    }
+    
+    public synchronized List<Salary> getAllSalaries() {
+        return new ArrayList<>(salaryRecords);
+    }
+    
+    public synchronized long getVersion() {
+        return version;
+    }
+    
+    // Changes whenever the data may have, including across restarts
+    public synchronized String getVersionTag() {
+        return Long.toHexString(epoch) + "." + version;
+    }
+    
+    public synchronized RollupCube getRollups() {
+        return rollups;
+    }
+    
+    private void assignId(Attendance attendance) {
+        if (attendance.getId() == 0) {
+            attendance.setId(attendanceIds.next());
+        } else {
+            attendanceIds.advancePast(attendance.getId());
+        }
+    }
+    
+    // Period Closing
+    private void checkOpen(YearMonth period) {
+        if (closedPeriods.containsKey(period)) {
+            throw new IllegalStateException("Period " + period + " is closed");
+        }
+    }
+    
+    public synchronized boolean isPeriodClosed(YearMonth period) {
+        return closedPeriods.containsKey(period);
+    }
+    
+    public synchronized PeriodSegment getClosedPeriod(YearMonth period) {
+        return closedPeriods.get(period);
+    }
+    
+    public synchronized NavigableMap<YearMonth, PeriodSegment> getClosedPeriods() {
+        return Collections.unmodifiableNavigableMap(new TreeMap<>(closedPeriods));
+    }
+    
+    /**
+     * Seals the month's attendance and salary records into a segment file and drops them from
+     * the live lists, so they are no longer rewritten by saveData() or rescanned by reports.
+     */
+    public synchronized PeriodSegment closePeriod(YearMonth period) throws IOException {
+        checkWritable();
+        checkOpen(period);
+        List<Attendance> attendance = attendanceByMonth.getOrDefault(period, Collections.emptyList());
+        List<Salary> salaries = salariesByMonth.getOrDefault(period, Collections.emptyList());
+        PeriodSegment segment = PeriodSegment.seal(periodsDir(), period, attendance, salaries);
+        closedPeriods.put(period, segment);
+        attendanceRecords.removeIf(att -> att.getPeriod().equals(period));
+        salaryRecords.removeIf(sal -> sal.getPeriod().equals(period));
+        rebuildIndexes();
+        publish(Mutation.Type.PERIOD_CLOSE, period);
+        saveData();
+        return segment;
+    }
+    
+    public synchronized List<Attendance> readClosedAttendance(YearMonth from, YearMonth to) throws IOException {
+        List<Attendance> result = new ArrayList<>();
+        for (PeriodSegment segment : closedPeriods.subMap(from, true, to, true).values()) {
+            result.addAll(segment.readAttendance());
+        }
+        return result;
+    }
+    
+    public synchronized List<Salary> readClosedSalaries(YearMonth from, YearMonth to) throws IOException {
+        List<Salary> result = new ArrayList<>();
+        for (PeriodSegment segment : closedPeriods.subMap(from, true, to, true).values()) {
+            result.addAll(segment.readSalaries());
+        }
+        return result;
+    }
+    
+    // Attendance Archiving
+    private void checkNotArchived(int year) {
+        if (archivedYears.containsKey(year)) {
+            throw new IllegalStateException("Attendance for " + year + " is archived");
+        }
+    }
+    
+    public synchronized NavigableMap<Integer, AttendanceArchive> getArchivedYears() {
+        return Collections.unmodifiableNavigableMap(new TreeMap<>(archivedYears));
+    }
+    
+    /**
+     * Moves a past year's live attendance into a compressed archive file, shrinking
+     * attendance.dat and every later load. Months already closed stay in their segments.
+     */
+    public synchronized AttendanceArchive archiveAttendanceYear(int year) throws IOException {
+        checkWritable();
+        if (year >= LocalDate.now().getYear()) {
+            throw new IllegalArgumentException("Only past years can be archived");
+        }
+        checkNotArchived(year);
+        List<Attendance> attendance = getAttendanceBetween(YearMonth.of(year, 1), YearMonth.of(year, 12));
+        if (attendance.isEmpty()) {
+            throw new IllegalStateException("No live attendance to archive for " + year);
+        }
+        AttendanceArchive archive = AttendanceArchive.write(archiveDir(), year, attendance);
+        archivedYears.put(year, archive);
+        attendanceRecords.removeIf(att -> att.getDate().getYear() == year);
+        rebuildIndexes();
+        publish(Mutation.Type.ATTENDANCE_ARCHIVE, year);
+        saveData();
+        return archive;
+    }
+    
+    /** Decompresses the archives overlapping the range; the lock is released before decoding. */
+    public List<Attendance> readArchivedAttendance(YearMonth from, YearMonth to) throws IOException {
+        List<AttendanceArchive> archives;
+        synchronized (this) {
+            archives = new ArrayList<>(archivedYears.subMap(from.getYear(), true, to.getYear(), true).values());
+        }
+        List<Attendance> result = new ArrayList<>();
+        for (AttendanceArchive archive : archives) {
+            for (Attendance att : archive.readAttendance()) {
+                YearMonth period = att.getPeriod();
+                if (!period.isBefore(from) && !period.isAfter(to)) {
+                    result.add(att);
+                }
+            }
+        }
+        return result;
+    }
+    
+    // Replication
+    private void checkWritable() {
+        if (replica && !applyingReplicated) {
+            throw new IllegalStateException("This is a read-only replica");
+        }
+    }
+    
+    private void publish(Mutation.Type type, Object payload) {
+        Mutation mutation = new Mutation(type, ++mutationLsn, System.currentTimeMillis(), payload);
+        for (MutationListener listener : mutationListeners) {
+            listener.onMutation(mutation);
+        }
+    }
+    
+    public synchronized void addMutationListener(MutationListener listener) {
+        mutationListeners.add(listener);
+    }
+    
+    public synchronized void removeMutationListener(MutationListener listener) {
+        mutationListeners.remove(listener);
+    }
+    
+    public synchronized long getMutationLsn() {
+        return mutationLsn;
+    }
+    
+    public boolean isReplica() {
+        return replica;
+    }
+    
+    /** Replaces the replica's contents with a primary's snapshot taken at the given sequence number. */
+    public synchronized void loadSnapshot(long lsn, List<Employee> snapshotEmployees, List<Attendance> snapshotAttendance, List<Salary> snapshotSalaries) {
+        employees = new ArrayList<>(snapshotEmployees);
+        attendanceRecords = new ArrayList<>(snapshotAttendance);
+        salaryRecords = new ArrayList<>(snapshotSalaries);
+        rebuildIndexes();
+        rollups = new RollupCube();
+        for (Salary sal : salaryRecords) {
+            rollups.add(sal, rollupPosition(sal));
+            salaryIds.advancePast(sal.getId());
+        }
+        employees.forEach(emp -> employeeIds.advancePast(emp.getId()));
+        attendanceRecords.forEach(att -> attendanceIds.advancePast(att.getId()));
+        mutationLsn = lsn;
+        version++;
+    }
+    
+    /**
+     * Applies a mutation shipped from the primary. A replica keeps closed periods in memory,
+     * because it has no segment or archive files of its own, so PERIOD_CLOSE and ATTENDANCE_ARCHIVE
+     * only advance the sequence.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void applyReplicated(Mutation mutation) {
+        applyingReplicated = true;
+        try {
+            switch (mutation.getType()) {
+                case EMPLOYEE_ADD -> addEmployee((Employee) mutation.getPayload());
+                case EMPLOYEE_UPDATE -> updateEmployee((Employee) mutation.getPayload());
+                case EMPLOYEE_DELETE -> deleteEmployee((Integer) mutation.getPayload());
+                case ATTENDANCE_ADD -> addAttendance((Attendance) mutation.getPayload());
+                case ATTENDANCE_BATCH -> {
+                    List<Attendance> batch = (List<Attendance>) mutation.getPayload();
+                    if (!batch.isEmpty()) {
+                        addAttendanceBatch(batch.get(0).getDate(), batch);
+                    }
+                }
+                case SALARY_ADD -> addSalary((Salary) mutation.getPayload());
+                case PERIOD_CLOSE, ATTENDANCE_ARCHIVE -> { }
+            }
+            mutationLsn = mutation.getLsn();
+        } finally {
+            applyingReplicated = false;
+        }
+    }
+    
+    // Approximate heap cost of one record, including the list and index entries that point at it
+    private static final int EMPLOYEE_BYTES = 360;
+    private static final int ATTENDANCE_BYTES = 80;
+    private static final int SALARY_BYTES = 150;
+    
+    /** An estimate of the heap this store holds, used for per-tenant memory accounting. */
+    public synchronized long estimateHeapBytes() {
+        return (long) employees.size() * EMPLOYEE_BYTES
+                + (long) attendanceRecords.size() * ATTENDANCE_BYTES
+                + (long) salaryRecords.size() * SALARY_BYTES;
+    }
+    
+    public Path getDataDir() {
+        return dataDir;
+    }
+    
+    // Partition sizes let the query planner pick the cheapest access path
+    synchronized int countAttendanceBetween(YearMonth from, YearMonth to) {
+        return attendanceByMonth.subMap(from, true, to, true).values().stream().mapToInt(List::size).sum();
+    }
+    
+    /**
+     * The employees, monthly hours and salary records a what-if simulation reads, taken under one
+     * lock so the months agree with each other. Employee and salary objects are shared, not copied.
+     */
+    public synchronized PayrollSnapshot snapshot(YearMonth from, YearMonth to) {
+        NavigableMap<YearMonth, Map<Integer, MonthlyHours>> hours = new TreeMap<>();
+        NavigableMap<YearMonth, List<Salary>> salaries = new TreeMap<>();
+        for (YearMonth period = from; !period.isAfter(to); period = period.plusMonths(1)) {
+            if (closedPeriods.containsKey(period)) {
+                // A closed month's records are only in its segment
+                try {
+                    Map<Integer, MonthlyHours> sealed = new HashMap<>();
+                    for (Attendance att : readClosedAttendance(period, period)) {
+                        sealed.computeIfAbsent(att.getEmployeeId(), k -> new MonthlyHours()).add(att);
+                    }
+                    hours.put(period, sealed);
+                    salaries.put(period, readClosedSalaries(period, period));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                hours.put(period, getMonthlyHours(period));
+                salaries.put(period, new ArrayList<>(salariesByMonth.getOrDefault(period, Collections.emptyList())));
+            }
+        }
+        List<PayrollSnapshot.Member> members = new ArrayList<>(employees.size());
+        for (Employee emp : employees) {
+            members.add(new PayrollSnapshot.Member(emp));
+        }
+        return new PayrollSnapshot(members, hours, salaries);
+    }
+    
+    synchronized int countSalariesBetween(YearMonth from, YearMonth to) {
+        return salariesByMonth.subMap(from, true, to, true).values().stream().mapToInt(List::size).sum();
+    }
+}
+
+// Query Aggregate
+class QueryAggregate {
+    private long count;
+    private double sum;
+    
+    void add(double value) {
+        count++;
+        sum += value;
+    }
+    
+    QueryAggregate merge(QueryAggregate other) {
+        count += other.count;
+        sum += other.sum;
+        return this;
+    }
+    
+    public long getCount() { return count; }
+    public double getSum() { return sum; }
+    public double getAverage() { return count == 0 ? 0 : sum / count; }
+}
+
+// Query Result
+class QueryResult {
+    private final PayrollQuery.Source source;
+    private final String plan;
+    private final List<?> rows;
+    private final Map<String, QueryAggregate> groups;
+    private final QueryAggregate total;
+    
+    QueryResult(PayrollQuery.Source source, String plan, List<?> rows, Map<String, QueryAggregate> groups, QueryAggregate total) {
+        this.source = source;
+        this.plan = plan;
+        this.rows = rows;
+        this.groups = groups;
+        this.total = total;
+    }
+    
+    public PayrollQuery.Source getSource() { return source; }
+    public String getPlan() { return plan; }
+    public List<?> getRows() { return rows; }
+    public Map<String, QueryAggregate> getGroups() { return groups; }
+    public QueryAggregate getTotal() { return total; }
+    
+    public String toText(DataManager dataManager) {
+        StringBuilder out = new StringBuilder();
+        out.append("Plan: ").append(plan).append("\n\n");
+        if (groups != null) {
+            out.append(String.format("%-25s %10s %15s %15s\n", "Group", "Count", "Sum", "Average"));
+            out.append("-".repeat(68)).append("\n");
+            for (Map.Entry<String, QueryAggregate> entry : groups.entrySet()) {
+                QueryAggregate agg = entry.getValue();
+                out.append(String.format("%-25s %10d %15.2f %15.2f\n", entry.getKey(), agg.getCount(), agg.getSum(), agg.getAverage()));
+            }
+        } else {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+            for (Object row : rows) {
+                if (row instanceof Employee emp) {
+                    out.append(String.format("%-5d %-20s %-15s %12.2f %s\n", emp.getId(), emp.getName(), emp.getPosition(), emp.getBaseSalary(), emp.getJoinDate().format(formatter)));
+                } else if (row instanceof Attendance att) {
+                    out.append(String.format("%-5d %-12s %-4s %6.2f\n", att.getEmployeeId(), att.getDate().format(formatter), att.isPresent() ? "Yes" : "No", att.getHoursWorked()));
+                } else if (row instanceof Salary sal) {
+                    out.append(String.format("%-5d %-10s %-5d %12.2f %12.2f %12.2f %12.2f\n", sal.getEmployeeId(), sal.getMonth(), sal.getYear(), sal.getBasicSalary(), sal.getAllowances(), sal.getDeductions(), sal.getNetSalary()));
+                }
+            }
+        }
+        out.append("-".repeat(68)).append("\n");
+        out.append(String.format("Total: count=%d sum=%.2f avg=%.2f\n", total.getCount(), total.getSum(), total.getAverage()));
+        return out.toString();
+    }
+}
+
+// Ad-hoc Query over employees, attendance and salaries
+class PayrollQuery {
+    enum Source { EMPLOYEES, ATTENDANCE, SALARIES }
+    enum GroupBy { NONE, EMPLOYEE, POSITION, MONTH }
+    
+    // Candidate sets larger than this are filtered and aggregated on the common fork-join pool
+    static final int PARALLEL_THRESHOLD = 50_000;
+    
+    private final Source source;
+    private Integer employeeId;
+    private LocalDate from;
+    private LocalDate to;
+    private String position;
+    private double minAmount = Double.NEGATIVE_INFINITY;
+    private double maxAmount = Double.POSITIVE_INFINITY;
+    private GroupBy groupBy = GroupBy.NONE;
+    
+    public PayrollQuery(Source source) {
+        this.source = source;
+    }
+    
+    public PayrollQuery employee(int id) { this.employeeId = id; return this; }
+    public PayrollQuery between(LocalDate from, LocalDate to) { this.from = from; this.to = to; return this; }
+    public PayrollQuery position(String position) { this.position = position; return this; }
+    public PayrollQuery amountBetween(double min, double max) { this.minAmount = min; this.maxAmount = max; return this; }
+    public PayrollQuery groupBy(GroupBy groupBy) { this.groupBy = groupBy; return this; }
+    
+    /**
+     * Parses the text form used by the Reports tab and the --query command line, e.g.
+     * "salaries position=Developer from=2024-01 to=2024-06 min=1000 group=month".
+     * Dates accept yyyy-MM-dd or yyyy-MM; the amount is base salary, hours worked or net salary.
+     */
+    public static PayrollQuery parse(String text) {
+        String[] tokens = text.trim().split("\\s+");
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            throw new IllegalArgumentException("Query must start with employees, attendance or salaries");
+        }
+        PayrollQuery query = new PayrollQuery(Source.valueOf(tokens[0].toUpperCase()));
+        LocalDate from = null, to = null;
+        for (int i = 1; i < tokens.length; i++) {
+            String[] kv = tokens[i].split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got: " + tokens[i]);
+            }
+            String value = kv[1];
+            switch (kv[0].toLowerCase()) {
+                case "id" -> query.employee(Integer.parseInt(value));
+                case "position" -> query.position(value.replace('_', ' '));
+                case "from" -> from = parseDate(value, false);
+                case "to" -> to = parseDate(value, true);
+                case "min" -> query.minAmount = Double.parseDouble(value);
+                case "max" -> query.maxAmount = Double.parseDouble(value);
+                case "group" -> query.groupBy(GroupBy.valueOf(value.toUpperCase()));
+                default -> throw new IllegalArgumentException("Unknown query key: " + kv[0]);
+            }
+        }
+        if (from != null || to != null) {
+            query.between(from != null ? from : LocalDate.MIN, to != null ? to : LocalDate.MAX);
+        }
+        return query;
+    }
+    
+    private static LocalDate parseDate(String value, boolean endOfPeriod) {
+        if (value.length() == 7) {
+            YearMonth ym = YearMonth.parse(value);
+            return endOfPeriod ? ym.atEndOfMonth() : ym.atDay(1);
+        }
+        return LocalDate.parse(value);
+    }
+    
+    public QueryResult execute(DataManager dataManager) {
+        return switch (source) {
+            case EMPLOYEES -> executeEmployees(dataManager);
+            case ATTENDANCE -> executeAttendance(dataManager);
+            case SALARIES -> executeSalaries(dataManager);
+        };
+    }
+    
+    private QueryResult executeEmployees(DataManager dataManager) {
+        Collection<Employee> candidates;
+        String plan;
+        if (employeeId != null) {
+            Employee emp = dataManager.getEmployeeById(employeeId);
+            candidates = emp == null ? Collections.emptyList() : List.of(emp);
+            plan = "employee id index";
+        } else if (position != null) {
+            candidates = dataManager.getEmployeesByPosition(position);
+            plan = "position index";
+        } else {
+            candidates = dataManager.getAllEmployees();
+            plan = "full scan";
+        }
+        Predicate<Employee> filter = emp -> (from == null || !emp.getJoinDate().isBefore(from) && !emp.getJoinDate().isAfter(to));
+        return run(candidates, plan, dataManager, Employee::getId, Employee::getBaseSalary, emp -> YearMonth.from(emp.getJoinDate()), filter);
+    }
+    
+    private QueryResult executeAttendance(DataManager dataManager) {
+        Collection<Attendance> candidates;
+        String plan;
+        Set<Integer> positionIds = positionIds(dataManager);
+        if (employeeId != null) {
+            candidates = dataManager.getAttendanceByEmployee(employeeId);
+            plan = "employee id index";
+        } else if (from != null && positionIds == null) {
+            YearMonth lo = clamp(from), hi = clamp(to);
+            candidates = dataManager.getAttendanceBetween(lo, hi);
+            plan = "month partitions " + lo + ".." + hi;
+        } else if (positionIds != null && (from == null || positionIds.size() < 64)) {
+            candidates = gather(positionIds, dataManager::getAttendanceByEmployee);
+            plan = "position index -> employee id index (" + positionIds.size() + " employees)";
+        } else if (from != null) {
+            YearMonth lo = clamp(from), hi = clamp(to);
+            candidates = dataManager.getAttendanceBetween(lo, hi);
+            plan = "month partitions " + lo + ".." + hi;
+        } else {
+            candidates = dataManager.getAllAttendance();
+            plan = "full scan";
+        }
+        int sealed = dataManager.getClosedPeriods().subMap(sealedFrom(), true, sealedTo(), true).size();
+        if (sealed > 0) {
+            try {
+                candidates = new ArrayList<>(candidates);
+                candidates.addAll(dataManager.readClosedAttendance(sealedFrom(), sealedTo()));
+                plan += " + " + sealed + " sealed period(s)";
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int archived = dataManager.getArchivedYears().subMap(sealedFrom().getYear(), true, sealedTo().getYear(), true).size();
+        if (archived > 0) {
+            try {
+                candidates = new ArrayList<>(candidates);
+                candidates.addAll(dataManager.readArchivedAttendance(sealedFrom(), sealedTo()));
+                plan += " + " + archived + " archived year(s)";
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Predicate<Attendance> filter = att -> (from == null || !att.getDate().isBefore(from) && !att.getDate().isAfter(to))
+                && (positionIds == null || positionIds.contains(att.getEmployeeId()));
+        return run(candidates, plan, dataManager, Attendance::getEmployeeId, Attendance::getHoursWorked, Attendance::getPeriod, filter);
+    }
+    
+    private QueryResult executeSalaries(DataManager dataManager) {
+        Collection<Salary> candidates;
+        String plan;
+        Set<Integer> positionIds = positionIds(dataManager);
+        if (employeeId != null) {
+            candidates = dataManager.getSalariesByEmployee(employeeId);
+            plan = "employee id index";
+        } else if (from != null && (positionIds == null
+                || dataManager.countSalariesBetween(clamp(from), clamp(to)) <= positionIds.size() * 12)) {
+            YearMonth lo = clamp(from), hi = clamp(to);
+            candidates = dataManager.getSalariesBetween(lo, hi);
+            plan = "month partitions " + lo + ".." + hi;
+        } else if (positionIds != null) {
+            candidates = gather(positionIds, dataManager::getSalariesByEmployee);
+            plan = "position index -> employee id index (" + positionIds.size() + " employees)";
+        } else {
+            candidates = dataManager.getAllSalaries();
+            plan = "full scan";
+        }
+        int sealed = dataManager.getClosedPeriods().subMap(sealedFrom(), true, sealedTo(), true).size();
+        if (sealed > 0) {
+            try {
+                candidates = new ArrayList<>(candidates);
+                candidates.addAll(dataManager.readClosedSalaries(sealedFrom(), sealedTo()));
+                plan += " + " + sealed + " sealed period(s)";
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // A salary belongs to a whole month, so it matches when its month overlaps the range
+        Predicate<Salary> filter = sal -> (from == null || !sal.getPeriod().atEndOfMonth().isBefore(from) && !sal.getPeriod().atDay(1).isAfter(to))
+                && (positionIds == null || positionIds.contains(sal.getEmployeeId()));
+        return run(candidates, plan, dataManager, Salary::getEmployeeId, Salary::getNetSalary, Salary::getPeriod, filter);
+    }
+    
+    private Set<Integer> positionIds(DataManager dataManager) {
+        if (position == null) {
+            return null;
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Employee emp : dataManager.getEmployeesByPosition(position)) {
+            ids.add(emp.getId());
+        }
+        return ids;
+    }
+    
+    private static <T> List<T> gather(Set<Integer> ids, Function<Integer, List<T>> lookup) {
+        List<T> result = new ArrayList<>();
+        for (Integer id : ids) {
+            result.addAll(lookup.apply(id));
+        }
+        return result;
+    }
+    
+    // Closed months are not in the live indexes, so their segments are read when the range covers them
+    private YearMonth sealedFrom() {
+        return from != null ? clamp(from) : YearMonth.of(1, 1);
+    }
+    
+    private YearMonth sealedTo() {
+        return to != null ? clamp(to) : YearMonth.of(9999, 12);
+    }
+    
+    private static YearMonth clamp(LocalDate date) {
+        if (date.getYear() < 1) return YearMonth.of(1, 1);
+        if (date.getYear() > 9999) return YearMonth.of(9999, 12);
+        return YearMonth.from(date);
+    }
+    
+    private <T> QueryResult run(Collection<T> candidates, String plan, DataManager dataManager,
+                                ToIntFunction<T> idOf, ToDoubleFunction<T> amountOf,
+                                Function<T, YearMonth> monthOf, Predicate<T> filter) {
+        boolean parallel = candidates.size() > PARALLEL_THRESHOLD;
+        if (parallel) {
+            plan += " (parallel)";
+        }
+        Predicate<T> predicate = filter.and(r -> employeeId == null || idOf.applyAsInt(r) == employeeId)
+                .and(r -> {
+                    double amount = amountOf.applyAsDouble(r);
+                    return amount >= minAmount && amount <= maxAmount;
+                });
+        Collector<T, QueryAggregate, QueryAggregate> aggregate = Collector.of(
+                QueryAggregate::new, (agg, r) -> agg.add(amountOf.applyAsDouble(r)), QueryAggregate::merge);
+        
+        Stream<T> stream = parallel ? candidates.parallelStream() : candidates.stream();
+        if (groupBy == GroupBy.NONE) {
+            List<T> rows = stream.filter(predicate).collect(Collectors.toList());
+            QueryAggregate total = rows.stream().collect(aggregate);
+            return new QueryResult(source, plan, rows, null, total);
+        }
+        
+        Function<T, String> keyOf = switch (groupBy) {
+            case EMPLOYEE -> r -> {
+                int id = idOf.applyAsInt(r);
+                Employee emp = dataManager.getEmployeeById(id);
+                return id + " - " + (emp != null ? emp.getName() : "Unknown");
+            };
+            case POSITION -> r -> {
+                Employee emp = dataManager.getEmployeeById(idOf.applyAsInt(r));
+                return emp != null ? emp.getPosition() : "Unknown";
+            };
+            default -> r -> monthOf.apply(r).toString();
+        };
+        Map<String, QueryAggregate> groups = stream.filter(predicate)
+                .collect(Collectors.groupingBy(keyOf, TreeMap::new, aggregate));
+        QueryAggregate total = new QueryAggregate();
+        groups.values().forEach(total::merge);
+        return new QueryResult(source, plan, Collections.emptyList(), groups, total);
+    }
+}
+
+// Row Format - a printf-style row pattern parsed once, then applied without String.format's per-call parsing
+class RowFormat {
+    private final String[] literals;
+    private final char[] conversions;
+    private final int[] widths;
+    private final int[] precisions;
+    private final boolean[] leftAligned;
+    
+    /** Supports %[-][width][.precision] with d, s and f, and %% for a literal percent sign. */
+    RowFormat(String pattern) {
+        List<String> literalList = new ArrayList<>();
+        List<int[]> fields = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i < pattern.length() && pattern.charAt(i) == '%') {
+                literal.append('%');
+                i++;
+                continue;
+            }
+            boolean left = i < pattern.length() && pattern.charAt(i) == '-';
+            if (left) i++;
+            int width = 0;
+            while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                width = width * 10 + (pattern.charAt(i++) - '0');
+            }
+            int precision = -1;
+            if (i < pattern.length() && pattern.charAt(i) == '.') {
+                i++;
+                precision = 0;
+                while (i < pattern.length() && Character.isDigit(pattern.charAt(i))) {
+                    precision = precision * 10 + (pattern.charAt(i++) - '0');
+                }
+            }
+            char conversion = i < pattern.length() ? pattern.charAt(i++) : 0;
+            if (conversion != 'd' && conversion != 's' && conversion != 'f') {
+                throw new IllegalArgumentException("Unsupported conversion in row pattern: " + pattern);
+            }
+            literalList.add(literal.toString());
+            literal.setLength(0);
+            fields.add(new int[] { conversion, width, conversion == 'f' && precision < 0 ? 6 : precision, left ? 1 : 0 });
+        }
+        literalList.add(literal.toString());
+        
+        literals = literalList.toArray(new String[0]);
+        conversions = new char[fields.size()];
+        widths = new int[fields.size()];
+        precisions = new int[fields.size()];
+        leftAligned = new boolean[fields.size()];
+        for (int f = 0; f < fields.size(); f++) {
+            int[] field = fields.get(f);
+            conversions[f] = (char) field[0];
+            widths[f] = field[1];
+            precisions[f] = field[2];
+            leftAligned[f] = field[3] == 1;
+        }
+    }
+    
+    public StringBuilder append(StringBuilder out, Object... args) {
+        if (args.length != conversions.length) {
+            throw new IllegalArgumentException("Expected " + conversions.length + " values but got " + args.length);
+        }
+        for (int f = 0; f < conversions.length; f++) {
+            out.append(literals[f]);
+            int start = out.length();
+            switch (conversions[f]) {
+                case 'd' -> out.append(((Number) args[f]).longValue());
+                case 'f' -> appendFixed(out, ((Number) args[f]).doubleValue(), precisions[f]);
+                default -> out.append(args[f]);
+            }
+            int padding = widths[f] - (out.length() - start);
+            if (padding > 0) {
+                if (leftAligned[f]) {
+                    for (int p = 0; p < padding; p++) {
+                        out.append(' ');
+                    }
+                } else {
+                    out.insert(start, " ".repeat(padding));
+                }
+            }
+        }
+        return out.append(literals[conversions.length]);
+    }
+    
+    private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000, 100_000_000 };
+    
+    private static void appendFixed(StringBuilder out, double value, int precision) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || precision >= POWERS_OF_TEN.length
+                || Math.abs(value) >= (double) Long.MAX_VALUE / POWERS_OF_TEN[precision]) {
+            out.append(String.format("%." + precision + "f", value));
+            return;
+        }
+        long scale = POWERS_OF_TEN[precision];
+        double exact = Math.abs(value) * scale;
+        if (Math.abs(exact - Math.floor(exact) - 0.5) < 1e-6) {
+            // Near a tie, round the shortest decimal form half-up the way Formatter does
+            out.append(new BigDecimal(Double.toString(value)).setScale(precision, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+        long scaled = Math.round(exact);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+        }
+        out.append(scaled / scale);
+        if (precision > 0) {
+            out.append('.');
+            String fraction = Long.toString(scaled % scale);
+            for (int pad = fraction.length(); pad < precision; pad++) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+    }
+}
+
+// Monthly Report - sections computed concurrently on the fork-join pool and formatted in parallel chunks
+class MonthlyReport {
+    private static final int CHUNK_ROWS = 20_000;
+    
+    private static final RowFormat EMPLOYEE_HEADER = new RowFormat("%-5s %-20s %-15s %-12s\n");
+    private static final RowFormat EMPLOYEE_ROW = new RowFormat("%-5d %-20s %-15s $%-11.2f\n");
+    private static final RowFormat ATTENDANCE_HEADER = new RowFormat("%-5s %-20s %-12s\n");
+    private static final RowFormat ATTENDANCE_ROW = new RowFormat("%-5d %-20s %-12d\n");
+    private static final RowFormat SALARY_HEADER = new RowFormat("%-5s %-20s %-12s %-10s\n");
+    private static final RowFormat SALARY_ROW = new RowFormat("%-5d %-20s $%-11.2f %-10d\n");
+    private static final RowFormat AMOUNT_LINE = new RowFormat("%s$%.2f\n");
+    private static final RowFormat HOURS_LINE = new RowFormat("%s%.2f\n");
+    
+    private final DataManager dataManager;
+    private final LocalDate today;
+    private final YearMonth period;
+    private final String currentMonth;
+    
+    public MonthlyReport(DataManager dataManager, LocalDate today) {
+        this.dataManager = dataManager;
+        this.today = today;
+        this.period = YearMonth.from(today);
+        this.currentMonth = today.getMonth().toString();
+    }
+    
+    /**
+     * Starts every section at once. The futures are in report order; each completes with its
+     * section's text split into chunks, so a caller can show sections as soon as they are ready.
+     */
+    public List<CompletableFuture<List<String>>> start() {
+        CompletableFuture<List<Employee>> employees = CompletableFuture.supplyAsync(dataManager::getAllEmployees);
+        CompletableFuture<Map<Integer, Employee>> byId = employees.thenApplyAsync(list -> {
+            Map<Integer, Employee> map = new HashMap<>(list.size() * 2);
+            for (Employee emp : list) {
+                map.put(emp.getId(), emp);
+            }
+            return map;
+        });
+        
+        List<CompletableFuture<List<String>>> sections = new ArrayList<>();
+        sections.add(CompletableFuture.completedFuture(List.of(header())));
+        sections.add(employees.thenApplyAsync(this::employeeSummary));
+        PeriodSegment sealed = dataManager.getClosedPeriod(period);
+        if (sealed != null) {
+            sections.add(CompletableFuture.completedFuture(List.of(sealedTotals(sealed))));
+        } else {
+            sections.add(byId.thenApplyAsync(this::attendanceSummary));
+            sections.add(byId.thenApplyAsync(this::salarySummary));
+        }
+        sections.add(employees.thenApplyAsync(this::statistics));
+        return sections;
+    }
+    
+    /** A generous guess at the report's length, so the text area's document can be sized once. */
+    public int estimateLength() {
+        long rows = 2L * dataManager.getEmployeeCount() + dataManager.countSalariesBetween(period, period);
+        return (int) Math.min(Integer.MAX_VALUE - 8, rows * 64 + 4096);
+    }
+    
+    /** The whole report as one string, for the command line. */
+    public String render() {
+        StringBuilder report = new StringBuilder();
+        for (CompletableFuture<List<String>> section : start()) {
+            section.join().forEach(report::append);
+        }
+        return report.toString();
+    }
+    
+    private String header() {
+        StringBuilder report = new StringBuilder();
+        report.append("PAYROLL MANAGEMENT SYSTEM - MONTHLY REPORT\n");
+        report.append("==========================================\n\n");
+        report.append("Report Generated: ").append(today.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"))).append("\n");
+        report.append("Current Month: ").append(currentMonth).append(" ").append(today.getYear()).append("\n\n");
+        return report.toString();
+    }
+    
+    private List<String> employeeSummary(List<Employee> employees) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder head = new StringBuilder();
+        head.append("EMPLOYEE SUMMARY\n");
+        head.append("----------------\n");
+        head.append("Total Employees: ").append(employees.size()).append("\n\n");
+        if (!employees.isEmpty()) {
+            EMPLOYEE_HEADER.append(head, "ID", "Name", "Position", "Base Salary");
+            head.append("-".repeat(60)).append("\n");
+        }
+        chunks.add(head.toString());
+        chunks.addAll(formatRows(employees, (out, emp) -> EMPLOYEE_ROW.append(out,
+                emp.getId(), abbreviate(emp.getName(), 20), abbreviate(emp.getPosition(), 15), emp.getBaseSalary())));
+        chunks.add("\n");
+        return chunks;
+    }
+    
+    private String sealedTotals(PeriodSegment sealed) {
+        StringBuilder report = new StringBuilder();
+        report.append("PERIOD ").append(currentMonth).append(" ").append(today.getYear()).append(" IS CLOSED - SEALED TOTALS\n");
+        report.append("-".repeat(50)).append("\n");
+        report.append("Attendance Records: ").append(sealed.getAttendanceCount()).append("\n");
+        report.append("Days Present: ").append(sealed.getDaysPresent()).append("\n");
+        HOURS_LINE.append(report, "Hours Worked: ", sealed.getTotalHours());
+        report.append("Salary Records: ").append(sealed.getSalaryCount()).append("\n");
+        AMOUNT_LINE.append(report, "Total Basic: ", sealed.getTotalBasic());
+        AMOUNT_LINE.append(report, "Total Allowances: ", sealed.getTotalAllowances());
+        AMOUNT_LINE.append(report, "Total Deductions: ", sealed.getTotalDeductions());
+        AMOUNT_LINE.append(report, "Total Salaries Paid: ", sealed.getTotalNet());
+        return report.toString();
+    }
+    
+    // Days present come from the maintained monthly aggregates rather than a scan of all attendance
+    private List<String> attendanceSummary(Map<Integer, Employee> byId) {
+        List<Map.Entry<Integer, MonthlyHours>> present = new ArrayList<>();
+        for (Map.Entry<Integer, MonthlyHours> entry : dataManager.getMonthlyHours(period).entrySet()) {
+            if (entry.getValue().getDaysPresent() > 0) {
+                present.add(entry);
+            }
+        }
+        present.sort(Map.Entry.comparingByKey());
+        
+        List<String> chunks = new ArrayList<>();
+        StringBuilder head = new StringBuilder();
+        head.append("ATTENDANCE SUMMARY - ").append(currentMonth).append(" ").append(today.getYear()).append("\n");
+        head.append("-".repeat(40)).append("\n");
+        if (present.isEmpty()) {
+            head.append("No attendance records found for current month.\n");
+        } else {
+            ATTENDANCE_HEADER.append(head, "ID", "Employee Name", "Days Present");
+            head.append("-".repeat(40)).append("\n");
+        }
+        chunks.add(head.toString());
+        chunks.addAll(formatRows(present, (out, entry) -> ATTENDANCE_ROW.append(out,
+                entry.getKey(), abbreviate(nameOf(byId, entry.getKey()), 20), entry.getValue().getDaysPresent())));
+        chunks.add("\n");
+        return chunks;
+    }
+    
+    private List<String> salarySummary(Map<Integer, Employee> byId) {
+        List<Salary> salaries = dataManager.getSalariesBetween(period, period);
+        
+        List<String> chunks = new ArrayList<>();
+        StringBuilder head = new StringBuilder();
+        head.append("SALARY SUMMARY - ").append(currentMonth).append(" ").append(today.getYear()).append("\n");
+        head.append("-".repeat(50)).append("\n");
+        if (salaries.isEmpty()) {
+            head.append("No salary records found for current month.\n");
+            chunks.add(head.toString());
+            return chunks;
+        }
+        SALARY_HEADER.append(head, "ID", "Employee Name", "Net Salary", "Days Worked");
+        head.append("-".repeat(50)).append("\n");
+        chunks.add(head.toString());
+        chunks.addAll(formatRows(salaries, (out, sal) -> SALARY_ROW.append(out,
+                sal.getEmployeeId(), abbreviate(nameOf(byId, sal.getEmployeeId()), 20), sal.getNetSalary(), sal.getDaysWorked())));
+        
+        double totalSalaries = 0;
+        for (Salary sal : salaries) {
+            totalSalaries += sal.getNetSalary();
+        }
+        StringBuilder tail = new StringBuilder();
+        tail.append("-".repeat(50)).append("\n");
+        AMOUNT_LINE.append(tail, "Total Salaries Paid: ", totalSalaries);
+        chunks.add(tail.toString());
+        return chunks;
+    }
+    
+    private List<String> statistics(List<Employee> employees) {
+        StringBuilder report = new StringBuilder();
+        report.append("\n");
+        report.append("SYSTEM STATISTICS\n");
+        report.append("-----------------\n");
+        report.append("Total Employees: ").append(employees.size()).append("\n");
+        Collection<PeriodSegment> closed = dataManager.getClosedPeriods().values();
+        report.append("Total Attendance Records: ").append(dataManager.getAttendanceCount()
+                + closed.stream().mapToInt(PeriodSegment::getAttendanceCount).sum()).append("\n");
+        report.append("Total Salary Records: ").append(dataManager.getSalaryCount()
+                + closed.stream().mapToInt(PeriodSegment::getSalaryCount).sum()).append("\n");
+        report.append("Closed Periods: ").append(closed.size()).append("\n");
+        
+        if (!employees.isEmpty()) {
+            double avgSalary = employees.stream().mapToDouble(Employee::getBaseSalary).average().orElse(0);
+            AMOUNT_LINE.append(report, "Average Base Salary: ", avgSalary);
+        }
+        return List.of(report.toString());
+    }
+    
+    /** Formats rows in independent chunks on the fork-join pool; the chunks stay in row order. */
+    private static <T> List<String> formatRows(List<T> rows, BiConsumer<StringBuilder, T> formatter) {
+        int chunkCount = (rows.size() + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        return IntStream.range(0, chunkCount).parallel().mapToObj(c -> {
+            int from = c * CHUNK_ROWS;
+            int to = Math.min(rows.size(), from + CHUNK_ROWS);
+            StringBuilder out = new StringBuilder((to - from) * 64);
+            for (int i = from; i < to; i++) {
+                formatter.accept(out, rows.get(i));
+            }
+            return out.toString();
+        }).collect(Collectors.toList());
+    }
+    
+    private static String nameOf(Map<Integer, Employee> byId, int employeeId) {
+        Employee emp = byId.get(employeeId);
+        return emp != null ? emp.getName() : "Unknown";
+    }
+    
+    private static String abbreviate(String text, int width) {
+        return text.length() > width ? text.substring(0, width - 3) + "..." : text;
+    }
+}
+
+// Payroll Snapshot - the employees, hours and salary records a simulation reads, taken at one instant
+class PayrollSnapshot {
+    // The fields a what-if run reads, copied under the data manager lock because the UI edits Employee objects in place
+    static class Member {
+        private final int id;
+        private final String position;
+        private final Employee.PayBasis payBasis;
+        private final double baseSalary;
+        
+        Member(Employee employee) {
+            this.id = employee.getId();
+            this.position = employee.getPosition();
+            this.payBasis = employee.getPayBasis();
+            this.baseSalary = employee.getBaseSalary();
+        }
+        
+        public int getId() { return id; }
+        public String getPosition() { return position; }
+        public Employee.PayBasis getPayBasis() { return payBasis; }
+        public double getBaseSalary() { return baseSalary; }
+    }
+    
+    private final List<Member> employees;
+    private final NavigableMap<YearMonth, Map<Integer, MonthlyHours>> hoursByMonth;
+    private final NavigableMap<YearMonth, List<Salary>> salariesByMonth;
+    
+    PayrollSnapshot(List<Member> employees, NavigableMap<YearMonth, Map<Integer, MonthlyHours>> hoursByMonth,
+                    NavigableMap<YearMonth, List<Salary>> salariesByMonth) {
+        this.employees = employees;
+        this.hoursByMonth = hoursByMonth;
+        this.salariesByMonth = salariesByMonth;
+    }
+    
+    public List<Member> getEmployees() { return employees; }
+    public Map<Integer, MonthlyHours> getHours(YearMonth period) { return hoursByMonth.getOrDefault(period, Collections.emptyMap()); }
+    public List<Salary> getSalaries(YearMonth period) { return salariesByMonth.getOrDefault(period, Collections.emptyList()); }
+}
+
+// Payroll Simulation - what-if pay changes priced against the actual salary records, never saved
+class PayrollSimulation {
+    // One hypothetical change for everyone, one position or one employee
+    static class Adjustment {
+        private String position;
+        private Integer employeeId;
+        private double raisePercent;
+        private Double newBaseSalary;
+        private double monthlyBonus;
+        
+        boolean appliesTo(PayrollSnapshot.Member employee) {
+            if (employeeId != null) {
+                return employee.getId() == employeeId;
+            }
+            return position == null || position.equalsIgnoreCase(employee.getPosition());
+        }
+        
+        double apply(double baseSalary) {
+            double base = newBaseSalary != null ? newBaseSalary : baseSalary;
+            return base * (1 + raisePercent / 100);
+        }
+        
+        @Override
+        public String toString() {
+            String target = employeeId != null ? "employee " + employeeId : position != null ? position : "everyone";
+            StringBuilder text = new StringBuilder(target).append(':');
+            if (newBaseSalary != null) text.append(String.format(" base $%.2f", newBaseSalary));
+            if (raisePercent != 0) text.append(String.format(" raise %+.2f%%", raisePercent));
+            if (monthlyBonus != 0) text.append(String.format(" bonus $%.2f/month", monthlyBonus));
+            return text.toString();
+        }
+    }
+    
+    private final List<Adjustment> adjustments = new ArrayList<>();
+    private YearMonth from;
+    private int months = 12;
+    
+    public PayrollSimulation months(YearMonth from, int months) {
+        if (months < 1 || months > 120) {
+            throw new IllegalArgumentException("months must be between 1 and 120");
+        }
+        this.from = from;
+        this.months = months;
+        return this;
+    }
+    
+    public PayrollSimulation adjust(Adjustment adjustment) {
+        adjustments.add(adjustment);
+        return this;
+    }
+    
+    /**
+     * Parses the text form used by the Reports tab and the --simulate command line, e.g.
+     * "position=Developer raise=10; id=42 salary=6000 bonus=250; from=2024-01 months=6".
+     * Changes separated by ';' apply in order, so a later one sees an earlier raise. Without
+     * from= the months end with the current one.
+     */
+    public static PayrollSimulation parse(String text) {
+        PayrollSimulation simulation = new PayrollSimulation();
+        YearMonth from = null;
+        int months = simulation.months;
+        for (String clause : text.split(";")) {
+            Adjustment adjustment = new Adjustment();
+            boolean changes = false;
+            for (String token : clause.trim().split("\\s+")) {
+                if (token.isEmpty() || token.equalsIgnoreCase("all")) {
+                    continue;
+                }
+                String[] kv = token.split("=", 2);
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Expected key=value but got: " + token);
+                }
+                String value = kv[1];
+                switch (kv[0].toLowerCase()) {
+                    case "position" -> adjustment.position = value.replace('_', ' ');
+                    case "id" -> adjustment.employeeId = Integer.parseInt(value);
+                    case "raise" -> { adjustment.raisePercent = Double.parseDouble(value.replace("%", "")); changes = true; }
+                    case "salary" -> { adjustment.newBaseSalary = Double.parseDouble(value); changes = true; }
+                    case "bonus" -> { adjustment.monthlyBonus = Double.parseDouble(value); changes = true; }
+                    case "from" -> from = YearMonth.parse(value);
+                    case "months" -> months = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown simulation key: " + kv[0]);
+                }
+            }
+            if (changes) {
+                simulation.adjust(adjustment);
+            } else if (adjustment.position != null || adjustment.employeeId != null) {
+                throw new IllegalArgumentException("No change given for " + adjustment);
+            }
+        }
+        if (simulation.adjustments.isEmpty()) {
+            throw new IllegalArgumentException("Give at least one raise=, salary= or bonus=");
+        }
+        return simulation.months(from != null ? from : YearMonth.now().minusMonths(months - 1), months);
+    }
+    
+    /**
+     * Prices the changes for every month against a snapshot of plain values, so nothing the data
+     * manager holds is touched, and the recomputed salaries live only in this run. A month's actual
+     * salary record is repriced from the rate it was paid at, with its own hours, allowances and
+     * deductions, so the delta is only the hypothetical change; an employee without one is
+     * projected from the current rate and the month's attendance with neither. The months are
+     * computed in parallel.
+     */
+    public SimulationResult run(DataManager dataManager) {
+        long start = System.nanoTime();
+        YearMonth to = from.plusMonths(months - 1);
+        PayrollSnapshot snapshot = dataManager.snapshot(from, to);
+        
+        Map<Integer, List<Adjustment>> changed = new HashMap<>();
+        Map<Integer, Double> bonuses = new HashMap<>();
+        for (PayrollSnapshot.Member emp : snapshot.getEmployees()) {
+            List<Adjustment> applied = new ArrayList<>();
+            double bonus = 0;
+            for (Adjustment adjustment : adjustments) {
+                if (adjustment.appliesTo(emp)) {
+                    applied.add(adjustment);
+                    bonus += adjustment.monthlyBonus;
+                }
+            }
+            if (!applied.isEmpty()) {
+                changed.put(emp.getId(), applied);
+                if (bonus != 0) {
+                    bonuses.put(emp.getId(), bonus);
+                }
+            }
+        }
+        
+        List<SimulationResult.MonthDelta> rows = IntStream.range(0, months).parallel()
+                .mapToObj(i -> simulateMonth(snapshot, from.plusMonths(i), changed, bonuses))
+                .collect(Collectors.toList());
+        return new SimulationResult(adjustments, rows, changed.size(), System.nanoTime() - start);
+    }
+    
+    // Changes apply in order, so a later one sees an earlier raise
+    private static double reprice(double rate, List<Adjustment> applied) {
+        for (Adjustment adjustment : applied) {
+            rate = adjustment.apply(rate);
+        }
+        return rate;
+    }
+    
+    private static SimulationResult.MonthDelta simulateMonth(PayrollSnapshot snapshot, YearMonth period,
+                                                             Map<Integer, List<Adjustment>> changed, Map<Integer, Double> bonuses) {
+        String month = period.getMonth().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+        SimulationResult.MonthDelta row = new SimulationResult.MonthDelta(period);
+        Set<Integer> paid = new HashSet<>();
+        for (Salary actual : snapshot.getSalaries(period)) {
+            paid.add(actual.getEmployeeId());
+            List<Adjustment> applied = changed.get(actual.getEmployeeId());
+            double net = actual.getNetSalary();
+            if (applied != null) {
+                net = new Salary(actual.getEmployeeId(), month, period.getYear(), actual.getPayBasis(), reprice(actual.getPayRate(), applied),
+                        actual.getAllowances() + bonuses.getOrDefault(actual.getEmployeeId(), 0.0), actual.getDeductions(),
+                        actual.getDaysWorked(), actual.getHoursWorked(), actual.getOvertimeHours()).getNetSalary();
+            }
+            row.add(true, actual.getNetSalary(), net, applied != null);
+        }
+        Map<Integer, MonthlyHours> hours = snapshot.getHours(period);
+        MonthlyHours none = new MonthlyHours();
+        for (PayrollSnapshot.Member emp : snapshot.getEmployees()) {
+            if (paid.contains(emp.getId())) {
+                continue;
+            }
+            MonthlyHours worked = hours.getOrDefault(emp.getId(), none);
+            double overtime = Math.max(0, worked.getHoursWorked() - worked.getDaysPresent() * Salary.STANDARD_DAY_HOURS);
+            double baseline = new Salary(emp.getId(), month, period.getYear(), emp.getPayBasis(), emp.getBaseSalary(), 0, 0,
+                    worked.getDaysPresent(), worked.getHoursWorked(), overtime).getNetSalary();
+            List<Adjustment> applied = changed.get(emp.getId());
+            double net = baseline;
+            if (applied != null) {
+                net = new Salary(emp.getId(), month, period.getYear(), emp.getPayBasis(), reprice(emp.getBaseSalary(), applied),
+                        bonuses.getOrDefault(emp.getId(), 0.0), 0, worked.getDaysPresent(), worked.getHoursWorked(), overtime).getNetSalary();
+            }
+            row.add(false, baseline, net, applied != null);
+        }
+        return row;
+    }
+}
+
+// Simulation Result - per-month totals of a what-if run against the actual payroll
+class SimulationResult {
+    static class MonthDelta {
+        private final YearMonth period;
+        private int actualRecords;
+        private int projected;
+        private int affected;
+        private double baseline;
+        private double simulated;
+        
+        MonthDelta(YearMonth period) {
+            this.period = period;
+        }
+        
+        void add(boolean actual, double baselineNet, double simulatedNet, boolean changed) {
+            if (actual) actualRecords++; else projected++;
+            if (changed) affected++;
+            baseline += baselineNet;
+            simulated += simulatedNet;
+        }
+        
+        public YearMonth getPeriod() { return period; }
+        public int getActualRecords() { return actualRecords; }
+        public int getProjected() { return projected; }
+        public int getAffected() { return affected; }
+        public double getBaseline() { return baseline; }
+        public double getSimulated() { return simulated; }
+        public double getDelta() { return simulated - baseline; }
+    }
+    
+    private final List<PayrollSimulation.Adjustment> adjustments;
+    private final List<MonthDelta> months;
+    private final int employeesChanged;
+    private final long elapsedNanos;
+    
+    SimulationResult(List<PayrollSimulation.Adjustment> adjustments, List<MonthDelta> months, int employeesChanged, long elapsedNanos) {
+        this.adjustments = adjustments;
+        this.months = months;
+        this.employeesChanged = employeesChanged;
+        this.elapsedNanos = elapsedNanos;
+    }
+    
+    public List<MonthDelta> getMonths() { return months; }
+    public int getEmployeesChanged() { return employeesChanged; }
+    public double getTotalBaseline() { return months.stream().mapToDouble(MonthDelta::getBaseline).sum(); }
+    public double getTotalSimulated() { return months.stream().mapToDouble(MonthDelta::getSimulated).sum(); }
+    public double getTotalDelta() { return getTotalSimulated() - getTotalBaseline(); }
+    
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append("WHAT-IF SIMULATION (not saved)\n");
+        text.append("==============================\n");
+        for (PayrollSimulation.Adjustment adjustment : adjustments) {
+            text.append("Change: ").append(adjustment).append("\n");
+        }
+        text.append("Employees changed: ").append(employeesChanged).append("\n\n");
+        text.append(String.format("%-9s %8s %9s %9s %15s %15s %14s %8s\n",
+                "Month", "Actual", "Projected", "Affected", "Baseline", "Simulated", "Delta", "Delta %"));
+        text.append("-".repeat(94)).append("\n");
+        for (MonthDelta row : months) {
+            text.append(String.format("%-9s %8d %9d %9d %15.2f %15.2f %+14.2f %+7.2f%%\n", row.getPeriod(), row.getActualRecords(),
+                    row.getProjected(), row.getAffected(), row.getBaseline(), row.getSimulated(), row.getDelta(), percent(row.getDelta(), row.getBaseline())));
+        }
+        text.append("-".repeat(94)).append("\n");
+        text.append(String.format("%-39s %15.2f %15.2f %+14.2f %+7.2f%%\n", "Total", getTotalBaseline(), getTotalSimulated(),
+                getTotalDelta(), percent(getTotalDelta(), getTotalBaseline())));
+        text.append("\nActual rows reprice a recorded salary; projected rows use the month's attendance without allowances or deductions.\n");
+        text.append(String.format("Simulated in %.1f ms\n", elapsedNanos / 1e6));
+        return text.toString();
+    }
+    
+    private static double percent(double delta, double baseline) {
+        return baseline == 0 ? 0 : delta / baseline * 100;
+    }
+}
+
+// Mutation - one logged change to the payroll data
+class Mutation {
+    enum Type { EMPLOYEE_ADD, EMPLOYEE_UPDATE, EMPLOYEE_DELETE, ATTENDANCE_ADD, ATTENDANCE_BATCH, SALARY_ADD, PERIOD_CLOSE, ATTENDANCE_ARCHIVE }
+    
+    private final Type type;
+    private final long lsn;
+    private final long timestamp;
+    private final Object payload;
+    
+    public Mutation(Type type, long lsn, long timestamp, Object payload) {
+        this.type = type;
+        this.lsn = lsn;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+    
+    public Type getType() { return type; }
+    public long getLsn() { return lsn; }
+    public long getTimestamp() { return timestamp; }
+    public Object getPayload() { return payload; }
+}
+
+// Mutation Listener - called under the DataManager lock, in log order
+interface MutationListener {
+    void onMutation(Mutation mutation);
+}
+
+// Replication Protocol - frames are a kind byte, the sequence number, the primary's clock and a body
+class ReplicationProtocol {
+    static final byte SNAPSHOT_BEGIN = 1;
+    static final byte SNAPSHOT_EMPLOYEE = 2;
+    static final byte SNAPSHOT_ATTENDANCE = 3;
+    static final byte SNAPSHOT_SALARY = 4;
+    static final byte SNAPSHOT_END = 5;
+    static final byte MUTATION = 6;
+    static final byte HEARTBEAT = 7;
+    
+    static byte[] encodeMutation(Mutation mutation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, MUTATION, mutation.getLsn(), mutation.getTimestamp());
+        out.writeByte(mutation.getType().ordinal());
+        switch (mutation.getType()) {
+            case EMPLOYEE_ADD, EMPLOYEE_UPDATE -> writeRecord(out, (Employee) mutation.getPayload(), RecordCodec::encodeEmployee);
+            case EMPLOYEE_DELETE -> out.writeInt((Integer) mutation.getPayload());
+            case ATTENDANCE_ADD -> writeRecord(out, (Attendance) mutation.getPayload(), RecordCodec::encodeAttendance);
+            case ATTENDANCE_BATCH -> {
+                @SuppressWarnings("unchecked")
+                List<Attendance> batch = (List<Attendance>) mutation.getPayload();
+                out.writeInt(batch.size());
+                for (Attendance att : batch) {
+                    writeRecord(out, att, RecordCodec::encodeAttendance);
+                }
+            }
+            case SALARY_ADD -> writeRecord(out, (Salary) mutation.getPayload(), RecordCodec::encodeSalary);
+            case PERIOD_CLOSE -> {
+                YearMonth period = (YearMonth) mutation.getPayload();
+                out.writeInt(period.getYear());
+                out.writeInt(period.getMonthValue());
+            }
+            case ATTENDANCE_ARCHIVE -> out.writeInt((Integer) mutation.getPayload());
+        }
+        return bytes.toByteArray();
+    }
+    
+    static Mutation decodeMutation(DataInputStream in, long lsn, long timestamp, Map<String, String> strings) throws IOException {
+        Mutation.Type type = Mutation.Type.values()[in.readByte()];
+        Object payload = switch (type) {
+            case EMPLOYEE_ADD, EMPLOYEE_UPDATE -> readRecord(in, RecordCodec::decodeEmployee, strings);
+            case EMPLOYEE_DELETE -> in.readInt();
+            case ATTENDANCE_ADD -> readRecord(in, RecordCodec::decodeAttendance, strings);
+            case ATTENDANCE_BATCH -> {
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Corrupt attendance batch size " + count);
+                }
+                List<Attendance> batch = new ArrayList<>(Math.min(count, RecordCodec.MAX_PRESIZE));
+                for (int i = 0; i < count; i++) {
+                    batch.add(readRecord(in, RecordCodec::decodeAttendance, strings));
+                }
+                yield batch;
+            }
+            case SALARY_ADD -> readRecord(in, RecordCodec::decodeSalary, strings);
+            case PERIOD_CLOSE -> YearMonth.of(in.readInt(), in.readInt());
+            case ATTENDANCE_ARCHIVE -> in.readInt();
+        };
+        return new Mutation(type, lsn, timestamp, payload);
+    }
+    
+    static void writeHeader(DataOutputStream out, byte kind, long lsn, long timestamp) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(lsn);
+        out.writeLong(timestamp);
+    }
+    
+    static <T> void writeRecord(DataOutputStream out, T record, RecordCodec.Encoder<T> encoder) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(128);
+        encoder.encode(record, new DataOutputStream(frame));
+        out.writeInt(frame.size());
+        frame.writeTo(out);
+    }
+    
+    static <T> T readRecord(DataInputStream in, RecordCodec.Decoder<T> decoder, Map<String, String> strings) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        return decoder.decode(ByteBuffer.wrap(frame), strings);
+    }
+}
+
+// Replication Server - ships a snapshot and then the live mutation stream to each follower
+class ReplicationServer {
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    
+    private final DataManager dataManager;
+    private final int port;
+    private ServerSocket serverSocket;
+    private final AtomicInteger followers = new AtomicInteger();
+    
+    public ReplicationServer(DataManager dataManager, int port) {
+        this.dataManager = dataManager;
+        this.port = port;
+    }
+    
+    public void start() throws IOException {
+        // Followers run on the same machine, so only the loopback interface is bound
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread follower = new Thread(() -> serveFollower(socket), "replication-" + socket.getRemoteSocketAddress());
+                    follower.setDaemon(true);
+                    follower.start();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        System.err.println("Replication accept error: " + e.getMessage());
+                    }
+                }
+            }
+        }, "replication-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+    
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+    
+    public int getFollowerCount() {
+        return followers.get();
+    }
+    
+    private void serveFollower(Socket socket) {
+        AtomicBoolean overflowed = new AtomicBoolean();
+        BlockingQueue<byte[]> queue;
+        MutationListener listener;
+        List<Employee> snapshotEmployees;
+        List<Attendance> snapshotAttendance;
+        List<Salary> snapshotSalaries;
+        long snapshotLsn;
+        try {
+            // Registering the listener and copying the data under one lock means no mutation is missed or applied twice
+            synchronized (dataManager) {
+                snapshotLsn = dataManager.getMutationLsn();
+                snapshotEmployees = dataManager.getAllEmployees();
+                snapshotAttendance = dataManager.getAllAttendance();
+                snapshotSalaries = dataManager.getAllSalaries();
+                YearMonth first = YearMonth.of(1, 1), last = YearMonth.of(9999, 12);
+                snapshotAttendance.addAll(dataManager.readClosedAttendance(first, last));
+                snapshotAttendance.addAll(dataManager.readArchivedAttendance(first, last));
+                snapshotSalaries.addAll(dataManager.readClosedSalaries(first, last));
+                // Mutations pile up for as long as the snapshot takes to stream, so the backlog allowance grows with it
+                queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY + snapshotEmployees.size() + snapshotAttendance.size() + snapshotSalaries.size());
+                // Mutations are encoded as they happen, under the DataManager lock, so later in-place edits cannot leak in
+                listener = mutation -> {
+                    try {
+                        if (!queue.offer(ReplicationProtocol.encodeMutation(mutation))) {
+                            overflowed.set(true);
+                        }
+                    } catch (IOException e) {
+                        overflowed.set(true);
+                    }
+                };
+                dataManager.addMutationListener(listener);
+            }
+        } catch (IOException e) {
+            System.err.println("Replication snapshot failed: " + e.getMessage());
+            closeQuietly(socket);
+            return;
+        }
+        
+        followers.incrementAndGet();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            long now = System.currentTimeMillis();
+            ReplicationProtocol.writeHeader(out, ReplicationProtocol.SNAPSHOT_BEGIN, snapshotLsn, now);
+            for (Employee emp : snapshotEmployees) {
+                ReplicationProtocol.writeHeader(out, ReplicationProtocol.SNAPSHOT_EMPLOYEE, snapshotLsn, now);
+                ReplicationProtocol.writeRecord(out, emp, RecordCodec::encodeEmployee);
+            }
+            for (Attendance att : snapshotAttendance) {
+                ReplicationProtocol.writeHeader(out, ReplicationProtocol.SNAPSHOT_ATTENDANCE, snapshotLsn, now);
+                ReplicationProtocol.writeRecord(out, att, RecordCodec::encodeAttendance);
+            }
+            for (Salary sal : snapshotSalaries) {
+                ReplicationProtocol.writeHeader(out, ReplicationProtocol.SNAPSHOT_SALARY, snapshotLsn, now);
+                ReplicationProtocol.writeRecord(out, sal, RecordCodec::encodeSalary);
+            }
+            ReplicationProtocol.writeHeader(out, ReplicationProtocol.SNAPSHOT_END, snapshotLsn, now);
+            out.flush();
+            
+            while (!socket.isClosed()) {
+                byte[] frame = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (overflowed.get()) {
+                    // A follower this far behind reconnects and starts again from a fresh snapshot
+                    System.err.println("Replication follower " + socket.getRemoteSocketAddress() + " fell behind, disconnecting");
+                    break;
+                }
+                if (frame == null) {
+                    ReplicationProtocol.writeHeader(out, ReplicationProtocol.HEARTBEAT, dataManager.getMutationLsn(), System.currentTimeMillis());
+                } else {
+                    out.write(frame);
+                    while ((frame = queue.poll()) != null) {
+                        out.write(frame);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Follower went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dataManager.removeMutationListener(listener);
+            followers.decrementAndGet();
+            closeQuietly(socket);
+        }
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
+
+// Replica Client - tails a primary's mutation stream into a local replica DataManager
+class ReplicaClient {
+    private static final long RECONNECT_MILLIS = 2000;
+    
+    private final String host;
+    private final int port;
+    private final DataManager replica;
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile long appliedLsn;
+    private volatile long primaryLsn;
+    private volatile long lastPrimaryTimestamp;
+    private volatile long lastAppliedTimestamp;
+    private final AtomicLong snapshotsLoaded = new AtomicLong();
+    private final AtomicLong mutationsApplied = new AtomicLong();
+    
+    public ReplicaClient(String host, int port, DataManager replica) {
+        this.host = host;
+        this.port = port;
+        this.replica = replica;
+    }
+    
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this::run, "replica-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void stop() {
+        running = false;
+    }
+    
+    private void run() {
+        while (running) {
+            try (Socket socket = new Socket(host, port);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+                connected = true;
+                follow(in);
+            } catch (IOException e) {
+                if (connected) {
+                    System.err.println("Replication stream lost: " + e.getMessage());
+                }
+            }
+            connected = false;
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    private void follow(DataInputStream in) throws IOException {
+        Map<String, String> strings = new HashMap<>();
+        List<Employee> snapshotEmployees = null;
+        List<Attendance> snapshotAttendance = null;
+        List<Salary> snapshotSalaries = null;
+        while (running) {
+            byte kind = in.readByte();
+            long lsn = in.readLong();
+            long timestamp = in.readLong();
+            primaryLsn = Math.max(primaryLsn, lsn);
+            lastPrimaryTimestamp = timestamp;
+            switch (kind) {
+                case ReplicationProtocol.SNAPSHOT_BEGIN -> {
+                    snapshotEmployees = new ArrayList<>();
+                    snapshotAttendance = new ArrayList<>();
+                    snapshotSalaries = new ArrayList<>();
+                }
+                case ReplicationProtocol.SNAPSHOT_EMPLOYEE -> snapshotEmployees.add(ReplicationProtocol.readRecord(in, RecordCodec::decodeEmployee, strings));
+                case ReplicationProtocol.SNAPSHOT_ATTENDANCE -> snapshotAttendance.add(ReplicationProtocol.readRecord(in, RecordCodec::decodeAttendance, strings));
+                case ReplicationProtocol.SNAPSHOT_SALARY -> snapshotSalaries.add(ReplicationProtocol.readRecord(in, RecordCodec::decodeSalary, strings));
+                case ReplicationProtocol.SNAPSHOT_END -> {
+                    replica.loadSnapshot(lsn, snapshotEmployees, snapshotAttendance, snapshotSalaries);
+                    snapshotEmployees = null;
+                    snapshotAttendance = null;
+                    snapshotSalaries = null;
+                    appliedLsn = lsn;
+                    lastAppliedTimestamp = timestamp;
+                    snapshotsLoaded.incrementAndGet();
+                }
+                case ReplicationProtocol.MUTATION -> {
+                    Mutation mutation = ReplicationProtocol.decodeMutation(in, lsn, timestamp, strings);
+                    replica.applyReplicated(mutation);
+                    appliedLsn = lsn;
+                    lastAppliedTimestamp = timestamp;
+                    mutationsApplied.incrementAndGet();
+                }
+                case ReplicationProtocol.HEARTBEAT -> {
+                    if (appliedLsn >= lsn) {
+                        lastAppliedTimestamp = timestamp;
+                    }
+                }
+                default -> throw new IOException("Unknown replication frame " + kind);
+            }
+        }
+    }
+    
+    public long getAppliedLsn() { return appliedLsn; }
+    public long getPrimaryLsn() { return primaryLsn; }
+    public long getLagMutations() { return Math.max(0, primaryLsn - appliedLsn); }
+    
+    /** How far the replica's state trails the primary's clock at the last frame received. */
+    public long getLagMillis() {
+        return appliedLsn >= primaryLsn ? 0 : Math.max(0, lastPrimaryTimestamp - lastAppliedTimestamp);
+    }
+    
+    public String toJson() {
+        return "{\"connected\":" + connected
+                + ",\"primary\":\"" + host + ":" + port + "\""
+                + ",\"appliedLsn\":" + appliedLsn
+                + ",\"primaryLsn\":" + primaryLsn
+                + ",\"lagMutations\":" + getLagMutations()
+                + ",\"lagMillis\":" + getLagMillis()
+                + ",\"snapshotsLoaded\":" + snapshotsLoaded.get()
+                + ",\"mutationsApplied\":" + mutationsApplied.get() + "}";
+    }
+}
+
+// Tenant Registry - one isolated store per company, loaded on first use and evicted when idle or over budget
+class TenantRegistry {
+    private static final Pattern TENANT_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]{0,63}");
+    
+    private final Path root;
+    private final long memoryBudget;
+    private final long idleMillis;
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    // Outlives eviction, so a reloaded store never hands out the ETags of an earlier load
+    private final Map<String, Long> generations = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+    private long loads;
+    private long evictions;
+    
+    private static class Tenant {
+        final String id;
+        volatile DataManager store;
+        int leases;
+        long lastUsed;
+        long estimatedBytes;
+        long generation;
+        
+        Tenant(String id) {
+            this.id = id;
+        }
+    }
+    
+    /** A company's store held open; it cannot be evicted until the lease is closed. */
+    class Lease implements AutoCloseable {
+        private final Tenant tenant;
+        
+        private Lease(Tenant tenant) {
+            this.tenant = tenant;
+        }
+        
+        public DataManager store() {
+            return tenant.store;
+        }
+        
+        /** How many times this company's store has been loaded; bumped on every reload after eviction. */
+        public long generation() {
+            return tenant.generation;
+        }
+        
+        @Override
+        public void close() {
+            release(tenant);
+        }
+    }
+    
+    public TenantRegistry(Path root, long memoryBudget, long idleMillis) {
+        this.root = root;
+        this.memoryBudget = memoryBudget;
+        this.idleMillis = idleMillis;
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tenant-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleMillis / 4);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    public void shutdown() {
+        evictor.shutdownNow();
+    }
+    
+    private Path dirFor(String id) {
+        if (!TENANT_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid company id: " + id);
+        }
+        return root.resolve(id);
+    }
+    
+    public synchronized List<String> listTenants() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (Files.isDirectory(root)) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+                for (Path dir : dirs) {
+                    ids.add(dir.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+    
+    public void createTenant(String id) throws IOException {
+        Path dir = dirFor(id);
+        if (Files.isDirectory(dir)) {
+            throw new IllegalStateException("Company " + id + " already exists");
+        }
+        Files.createDirectories(dir);
+    }
+    
+    /**
+     * Leases the company's store, loading it from its own directory on first use. The load runs
+     * outside the registry lock, so one large company loading does not stall the others.
+     */
+    public Lease acquire(String id) {
+        Path dir = dirFor(id);
+        Tenant tenant;
+        synchronized (this) {
+            tenant = tenants.get(id);
+            if (tenant == null) {
+                if (!Files.isDirectory(dir)) {
+                    throw new IllegalArgumentException("Unknown company: " + id);
+                }
+                tenant = new Tenant(id);
+                tenants.put(id, tenant);
+            }
+            tenant.leases++;
+            tenant.lastUsed = System.currentTimeMillis();
+        }
+        synchronized (tenant) {
+            if (tenant.store == null) {
+                try {
+                    tenant.store = new DataManager(dir);
+                } catch (RuntimeException e) {
+                    release(tenant);
+                    throw e;
+                }
+                synchronized (this) {
+                    tenant.estimatedBytes = tenant.store.estimateHeapBytes();
+                    tenant.generation = generations.merge(id, 1L, Long::sum);
+                    loads++;
+                }
+            }
+        }
+        enforceBudget();
+        return new Lease(tenant);
+    }
+    
+    private synchronized void release(Tenant tenant) {
+        tenant.leases--;
+        tenant.lastUsed = System.currentTimeMillis();
+        if (tenant.store != null) {
+            tenant.estimatedBytes = tenant.store.estimateHeapBytes();
+        }
+    }
+    
+    // Every mutation is already saved, so evicting a store only drops it from the heap
+    private synchronized void evict(Tenant tenant) {
+        tenants.remove(tenant.id);
+        evictions++;
+    }
+    
+    synchronized void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        for (Tenant tenant : new ArrayList<>(tenants.values())) {
+            if (tenant.leases == 0 && tenant.lastUsed < cutoff) {
+                evict(tenant);
+            }
+        }
+    }
+    
+    /** Evicts the least recently used idle companies until the estimated total fits the budget. */
+    synchronized void enforceBudget() {
+        long total = getEstimatedBytes();
+        if (total <= memoryBudget) {
+            return;
+        }
+        List<Tenant> idle = new ArrayList<>();
+        for (Tenant tenant : tenants.values()) {
+            if (tenant.leases == 0) {
+                idle.add(tenant);
+            }
+        }
+        idle.sort(Comparator.comparingLong(t -> t.lastUsed));
+        for (Tenant tenant : idle) {
+            if (total <= memoryBudget) {
+                break;
+            }
+            total -= tenant.estimatedBytes;
+            evict(tenant);
+        }
+    }
+    
+    public synchronized long getEstimatedBytes() {
+        long total = 0;
+        for (Tenant tenant : tenants.values()) {
+            total += tenant.estimatedBytes;
+        }
+        return total;
+    }
+    
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"loaded\":").append(tenants.size())
+                .append(",\"estimatedBytes\":").append(getEstimatedBytes())
+                .append(",\"memoryBudget\":").append(memoryBudget)
+                .append(",\"loads\":").append(loads)
+                .append(",\"evictions\":").append(evictions)
+                .append(",\"tenants\":[");
+        List<Tenant> sorted = new ArrayList<>(tenants.values());
+        sorted.sort(Comparator.comparing(t -> t.id));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sorted.size(); i++) {
+            Tenant tenant = sorted.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":\"").append(tenant.id)
+                    .append("\",\"leases\":").append(tenant.leases)
+                    .append(",\"idleMillis\":").append(now - tenant.lastUsed)
+                    .append(",\"estimatedBytes\":").append(tenant.estimatedBytes).append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
+
+// Payroll API Server - JSON over HTTP for clerks and scripts, over one DataManager or one per company
+class PayrollApiServer {
+    static final int DEFAULT_PORT = 8081;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    
+    // Exactly one of these is set: a single store, or a registry of per-company stores
+    private final DataManager dataManager;
+    private final TenantRegistry tenants;
+    private final int port;
+    private HttpServer server;
+    private ExecutorService executor;
+    private Supplier<String> replicationMetrics = () -> "null";
+    
+    public PayrollApiServer(DataManager dataManager, int port) {
+        this.dataManager = dataManager;
+        this.tenants = null;
+        this.port = port;
+    }
+    
+    /** Serves every company under /api/tenants/{id}/..., each from its own store. */
+    public PayrollApiServer(TenantRegistry tenants, int port) {
+        this.dataManager = null;
+        this.tenants = tenants;
+        this.port = port;
+    }
+    
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        if (tenants != null) {
+            server.createContext("/api/tenants", this::handleTenants);
+        } else {
+            server.createContext("/api/employees", exchange -> handle(exchange, dataManager, "", PayrollQuery.Source.EMPLOYEES));
+            server.createContext("/api/attendance", exchange -> handle(exchange, dataManager, "", PayrollQuery.Source.ATTENDANCE));
+            server.createContext("/api/salaries", exchange -> handle(exchange, dataManager, "", PayrollQuery.Source.SALARIES));
+            server.createContext("/api/metrics", exchange -> handleMetrics(exchange, dataManager));
+        }
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+        }
+    }
+    
+    /** JSON object describing the primary's followers or the replica's lag, served under /api/metrics. */
+    public void setReplicationMetrics(Supplier<String> replicationMetrics) {
+        this.replicationMetrics = replicationMetrics;
+    }
+    
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+    
+    /**
+     * One virtual thread per request on JDK 21+. Older runtimes fall back to a bounded
+     * pool of platform threads, since the API is looked up reflectively.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 8));
+        }
+    }
+    
+    private void handle(HttpExchange exchange, DataManager store, String tagPrefix, PayrollQuery.Source source) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (method.equals("GET")) {
+                handleGet(exchange, store, tagPrefix, source);
+            } else if (method.equals("POST") && source != PayrollQuery.Source.SALARIES) {
+                handlePost(exchange, store, source);
+            } else {
+                send(exchange, 405, "{\"error\":\"Method not allowed\"}", null);
+            }
+        } catch (IllegalArgumentException | DateTimeException e) {
+            send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}", null);
+        } catch (IllegalStateException e) {
+            send(exchange, 409, "{\"error\":" + quote(e.getMessage()) + "}", null);
+        } catch (RuntimeException e) {
+            send(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}", null);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private void handleMetrics(HttpExchange exchange, DataManager store) throws IOException {
+        try {
+            String json = "{\"dataVersion\":" + store.getVersion()
+                    + ",\"lsn\":" + store.getMutationLsn()
+                    + ",\"replica\":" + store.isReplica()
+                    + ",\"estimatedBytes\":" + store.estimateHeapBytes()
+                    + ",\"replication\":" + replicationMetrics.get() + "}";
+            send(exchange, 200, json, null);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * GET /api/tenants lists the companies and the registry's memory accounting, POST /api/tenants {id}
+     * creates a company, and /api/tenants/{id}/{employees|attendance|salaries|metrics} is the
+     * single-store API scoped to that company's store, which is loaded on first use.
+     */
+    private void handleTenants(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length == 3) {
+            try {
+                if (exchange.getRequestMethod().equals("GET")) {
+                    StringBuilder json = new StringBuilder("{\"companies\":[");
+                    List<String> ids = tenants.listTenants();
+                    for (int i = 0; i < ids.size(); i++) {
+                        if (i > 0) json.append(',');
+                        json.append(quote(ids.get(i)));
+                    }
+                    json.append("],\"registry\":").append(tenants.toJson()).append('}');
+                    send(exchange, 200, json.toString(), null);
+                } else if (exchange.getRequestMethod().equals("POST")) {
+                    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    String id = required(parseFlatJson(body), "id");
+                    tenants.createTenant(id);
+                    send(exchange, 201, "{\"id\":" + quote(id) + "}", null);
+                } else {
+                    send(exchange, 405, "{\"error\":\"Method not allowed\"}", null);
+                }
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}", null);
+            } catch (IllegalStateException e) {
+                send(exchange, 409, "{\"error\":" + quote(e.getMessage()) + "}", null);
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        
+        PayrollQuery.Source source = null;
+        if (path.length == 5) {
+            switch (path[4]) {
+                case "employees" -> source = PayrollQuery.Source.EMPLOYEES;
+                case "attendance" -> source = PayrollQuery.Source.ATTENDANCE;
+                case "salaries" -> source = PayrollQuery.Source.SALARIES;
+                default -> { }
+            }
+        }
+        if (path.length != 5 || source == null && !path[4].equals("metrics")) {
+            send(exchange, 404, "{\"error\":\"Not found\"}", null);
+            exchange.close();
+            return;
+        }
+        TenantRegistry.Lease lease;
+        try {
+            lease = tenants.acquire(path[3]);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 404, "{\"error\":" + quote(e.getMessage()) + "}", null);
+            exchange.close();
+            return;
+        }
+        try (lease) {
+            if (source == null) {
+                handleMetrics(exchange, lease.store());
+            } else {
+                handle(exchange, lease.store(), "g" + lease.generation() + ".", source);
+            }
+        }
+    }
+    
+    /**
+     * GET /api/{employees|attendance|salaries}?id=&position=&from=&to=&min=&max=&group=&offset=&limit=
+     * The filters are the same keys the query bar accepts. The response depends only on the data
+     * version tag and the request URI, so that pair is the ETag; tenant stores prefix their load generation.
+     */
+    private void handleGet(HttpExchange exchange, DataManager store, String tagPrefix, PayrollQuery.Source source) throws IOException {
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        String etag = "\"" + tagPrefix + store.getVersionTag() + "-" + Integer.toHexString(String.valueOf(exchange.getRequestURI()).hashCode()) + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null, etag);
+            return;
+        }
+        
+        Map<String, String> params = parseParams(rawQuery);
+        int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+        int limit = Math.min(MAX_PAGE_SIZE, Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_PAGE_SIZE))));
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        
+        StringBuilder text = new StringBuilder(source.name().toLowerCase());
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!param.getKey().equals("offset") && !param.getKey().equals("limit")) {
+                text.append(' ').append(param.getKey()).append('=').append(param.getValue().replace(' ', '_'));
             }
         }
-        saveData();
-    }
-    
-    public void deleteEmployee(int id) {
-        employees.removeIf(emp -> emp.getId() == id);
-        saveData();
+        QueryResult result = PayrollQuery.parse(text.toString()).execute(store);
+        
+        StringBuilder json = new StringBuilder(4096);
+        if (result.getGroups() != null) {
+            json.append("{\"groups\":[");
+            boolean first = true;
+            for (Map.Entry<String, QueryAggregate> group : result.getGroups().entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                QueryAggregate agg = group.getValue();
+                json.append("{\"key\":").append(quote(group.getKey()))
+                        .append(",\"count\":").append(agg.getCount())
+                        .append(",\"sum\":").append(agg.getSum())
+                        .append(",\"avg\":").append(agg.getAverage()).append('}');
+            }
+            json.append("]}");
+        } else {
+            List<?> rows = result.getRows();
+            int end = (int) Math.min(rows.size(), (long) offset + limit);
+            json.append("{\"total\":").append(rows.size())
+                    .append(",\"offset\":").append(offset)
+                    .append(",\"limit\":").append(limit)
+                    .append(",\"items\":[");
+            for (int i = offset; i < end; i++) {
+                if (i > offset) json.append(',');
+                appendRecord(json, rows.get(i));
+            }
+            json.append("]}");
+        }
+        send(exchange, 200, json.toString(), etag);
     }
     
-    public List<Employee> getAllEmployees() {
-        return new ArrayList<>(employees);
+    // POST /api/employees {name, position, baseSalary, payBasis, email, phone} and /api/attendance {employeeId, date, present, hoursWorked}
+    private void handlePost(HttpExchange exchange, DataManager store, PayrollQuery.Source source) throws IOException {
+        if (store.isReplica()) {
+            throw new IllegalStateException("This is a read-only replica; send writes to the primary");
+        }
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Map<String, String> fields = parseFlatJson(body);
+        StringBuilder json = new StringBuilder();
+        if (source == PayrollQuery.Source.EMPLOYEES) {
+            String name = required(fields, "name");
+            String position = required(fields, "position");
+            String email = required(fields, "email");
+            double baseSalary = requiredAmount(fields, "baseSalary");
+            Employee.PayBasis payBasis = Employee.PayBasis.valueOf(fields.getOrDefault("payBasis", "SALARIED").toUpperCase());
+            Employee employee = new Employee(store.allocateEmployeeId(), name, position, baseSalary, email, fields.getOrDefault("phone", ""));
+            employee.setPayBasis(payBasis);
+            store.addEmployee(employee);
+            appendRecord(json, employee);
+        } else {
+            int employeeId = Integer.parseInt(required(fields, "employeeId"));
+            if (store.getEmployeeById(employeeId) == null) {
+                throw new IllegalArgumentException("Unknown employee " + employeeId);
+            }
+            boolean present = Boolean.parseBoolean(fields.getOrDefault("present", "true"));
+            double hours = present ? requiredAmount(fields, "hoursWorked") : 0;
+            LocalDate date = fields.containsKey("date") ? LocalDate.parse(fields.get("date")) : LocalDate.now();
+            Attendance attendance = new Attendance(employeeId, date, present, hours);
+            store.addAttendance(attendance);
+            appendRecord(json, attendance);
+        }
+        send(exchange, 201, json.toString(), null);
     }
     
-    public Employee getEmployeeById(int id) {
-        return employees.stream().filter(emp -> emp.getId() == id).findFirst().orElse(null);
+    // NaN and Infinity parse as doubles but cannot be written back as JSON
+    private static double requiredAmount(Map<String, String> fields, String key) {
+        double value = Double.parseDouble(required(fields, key));
+        if (!Double.isFinite(value) || value < 0) {
+            throw new IllegalArgumentException(key + " must be a non-negative number");
+        }
+        return value;
     }
     
-    public int getNextEmployeeId() {
-        return employees.stream().mapToInt(Employee::getId).max().orElse(0) + 1;
+    private static String required(Map<String, String> fields, String key) {
+        String value = fields.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException(key + " is required");
+        }
+        return value;
     }
     
-    // Attendance Management
-    public void addAttendance(Attendance attendance) {
-        attendanceRecords.add(attendance);
-        saveData();
+    private static void appendRecord(StringBuilder json, Object record) {
+        if (record instanceof Employee emp) {
+            json.append("{\"id\":").append(emp.getId())
+                    .append(",\"name\":").append(quote(emp.getName()))
+                    .append(",\"position\":").append(quote(emp.getPosition()))
+                    .append(",\"baseSalary\":").append(emp.getBaseSalary())
+                    .append(",\"payBasis\":\"").append(emp.getPayBasis()).append('"')
+                    .append(",\"email\":").append(quote(emp.getEmail()))
+                    .append(",\"phone\":").append(quote(emp.getPhone()))
+                    .append(",\"joinDate\":\"").append(emp.getJoinDate()).append("\"}");
+        } else if (record instanceof Attendance att) {
+            json.append("{\"id\":").append(att.getId())
+                    .append(",\"employeeId\":").append(att.getEmployeeId())
+                    .append(",\"date\":\"").append(att.getDate()).append('"')
+                    .append(",\"present\":").append(att.isPresent())
+                    .append(",\"hoursWorked\":").append(att.getHoursWorked()).append('}');
+        } else if (record instanceof Salary sal) {
+            json.append("{\"id\":").append(sal.getId())
+                    .append(",\"employeeId\":").append(sal.getEmployeeId())
+                    .append(",\"month\":").append(quote(sal.getMonth()))
+                    .append(",\"year\":").append(sal.getYear())
+                    .append(",\"payBasis\":\"").append(sal.getPayBasis()).append('"')
+                    .append(",\"basicSalary\":").append(sal.getBasicSalary())
+                    .append(",\"allowances\":").append(sal.getAllowances())
+                    .append(",\"deductions\":").append(sal.getDeductions())
+                    .append(",\"netSalary\":").append(sal.getNetSalary())
+                    .append(",\"daysWorked\":").append(sal.getDaysWorked())
+                    .append(",\"hoursWorked\":").append(sal.getHoursWorked())
+                    .append(",\"overtimeHours\":").append(sal.getOvertimeHours())
+                    .append(",\"hourlyRate\":").append(sal.getHourlyRate())
+                    .append(",\"overtimePay\":").append(sal.getOvertimePay()).append('}');
+        }
     }
     
-    public List<Attendance> getAttendanceByEmployee(int employeeId) {
-        return attendanceRecords.stream()
-                .filter(att -> att.getEmployeeId() == employeeId)
-                .toList();
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
     }
     
-    public List<Attendance> getAllAttendance() {
-        return new ArrayList<>(attendanceRecords);
+    private static Map<String, String> parseParams(String rawQuery) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            String[] kv = pair.split("=", 2);
+            String key = URLDecoder.decode(kv[0], StandardCharsets.UTF_8);
+            String value = kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "";
+            params.put(key, value);
+        }
+        return params;
     }
     
-    // Salary Management
-    public void addSalary(Salary salary) {
-        salaryRecords.add(salary);
-        saveData();
+    // Accepts a single flat JSON object of string, number and boolean values
+    static Map<String, String> parseFlatJson(String json) {
+        Map<String, String> fields = new HashMap<>();
+        String body = json.trim();
+        if (!body.startsWith("{") || !body.endsWith("}")) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        int i = 1;
+        int end = body.length() - 1;
+        while (i < end) {
+            char c = body.charAt(i);
+            if (Character.isWhitespace(c) || c == ',') {
+                i++;
+                continue;
+            }
+            if (c != '"') {
+                throw new IllegalArgumentException("Malformed JSON near position " + i);
+            }
+            StringBuilder key = new StringBuilder();
+            i = readJsonString(body, i, key);
+            while (i < end && (Character.isWhitespace(body.charAt(i)) || body.charAt(i) == ':')) i++;
+            StringBuilder value = new StringBuilder();
+            if (i < end && body.charAt(i) == '"') {
+                i = readJsonString(body, i, value);
+            } else {
+                while (i < end && body.charAt(i) != ',' && !Character.isWhitespace(body.charAt(i))) {
+                    value.append(body.charAt(i++));
+                }
+            }
+            fields.put(key.toString(), value.toString());
+        }
+        return fields;
     }
     
-    public List<Salary> getSalariesByEmployee(int employeeId) {
-        return salaryRecords.stream()
-                .filter(sal -> sal.getEmployeeId() == employeeId)
-                .toList();
+    private static int readJsonString(String body, int start, StringBuilder out) {
+        int i = start + 1;
+        while (i < body.length()) {
+            char c = body.charAt(i++);
+            if (c == '"') {
+                return i;
+            }
+            if (c == '\\' && i < body.length()) {
+                char escaped = body.charAt(i++);
+                switch (escaped) {
+                    case 'n' -> out.append('\n');
+                    case 't' -> out.append('\t');
+                    case 'r' -> out.append('\r');
+                    case 'u' -> {
+                        if (i + 4 > body.length()) {
+                            throw new IllegalArgumentException("Truncated \\u escape in JSON string");
+                        }
+                        out.append((char) Integer.parseInt(body.substring(i, i + 4), 16));
+                        i += 4;
+                    }
+                    default -> out.append(escaped);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string");
     }
     
-    public List<Salary> getAllSalaries() {
-        return new ArrayList<>(salaryRecords);
+    private static void send(HttpExchange exchange, int status, String body, String etag) throws IOException {
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
     }
 }
 
@@ -278,6 +4348,7 @@ public class PayrollManagementSystem extends JFrame {
     private DefaultTableModel employeeTableModel;
     private JTable employeeTable;
     private JTextField empNameField, empPositionField, empSalaryField, empEmailField, empPhoneField;
+    private JComboBox<Employee.PayBasis> empPayBasisComboBox;
     
     // Attendance Management Components
     private DefaultTableModel attendanceTableModel;
@@ -291,6 +4362,10 @@ public class PayrollManagementSystem extends JFrame {
     private JTable salaryTable;
     private JComboBox<String> salEmpComboBox, salMonthComboBox;
     private JTextField salYearField, salAllowancesField, salDeductionsField;
+    private JProgressBar payslipProgressBar;
+    
+    // Cost Rollup Components
+    private DefaultTableModel rollupTableModel;
     
     public PayrollManagementSystem() {
         dataManager = new DataManager();
@@ -321,6 +4396,7 @@ public class PayrollManagementSystem extends JFrame {
         tabbedPane.addTab("Attendance Management", createAttendancePanel());
         tabbedPane.addTab("Salary Management", createSalaryPanel());
         tabbedPane.addTab("Reports", createReportsPanel());
+        tabbedPane.addTab("Cost Rollups", createRollupPanel());
         
         add(tabbedPane);
     }
@@ -349,18 +4425,24 @@ public class PayrollManagementSystem extends JFrame {
         formPanel.add(empPositionField, gbc);
         
         gbc.gridx = 0; gbc.gridy = 2;
-        formPanel.add(new JLabel("Base Salary:"), gbc);
+        formPanel.add(new JLabel("Base Salary / Hourly Rate:"), gbc);
         gbc.gridx = 1;
         empSalaryField = new JTextField(20);
         formPanel.add(empSalaryField, gbc);
         
         gbc.gridx = 0; gbc.gridy = 3;
+        formPanel.add(new JLabel("Pay Basis:"), gbc);
+        gbc.gridx = 1;
+        empPayBasisComboBox = new JComboBox<>(Employee.PayBasis.values());
+        formPanel.add(empPayBasisComboBox, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 4;
         formPanel.add(new JLabel("Email:"), gbc);
         gbc.gridx = 1;
         empEmailField = new JTextField(20);
         formPanel.add(empEmailField, gbc);
         
-        gbc.gridx = 0; gbc.gridy = 4;
+        gbc.gridx = 0; gbc.gridy = 5;
         formPanel.add(new JLabel("Phone:"), gbc);
         gbc.gridx = 1;
         empPhoneField = new JTextField(20);
@@ -384,7 +4466,7 @@ public class PayrollManagementSystem extends JFrame {
         buttonPanel.add(clearBtn);
         
         // Table
-        String[] columns = {"ID", "Name", "Position", "Base Salary", "Email", "Phone", "Join Date"};
+        String[] columns = {"ID", "Name", "Position", "Base Salary", "Email", "Phone", "Join Date", "Pay Basis"};
         employeeTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -438,16 +4520,22 @@ public class PayrollManagementSystem extends JFrame {
         // Buttons
         JPanel buttonPanel = new JPanel(new FlowLayout());
         JButton addBtn = new JButton("Mark Attendance");
+        JButton bulkBtn = new JButton("Mark Attendance for All...");
+        JButton archiveBtn = new JButton("Archive Year...");
         JButton clearBtn = new JButton("Clear");
         
         addBtn.addActionListener(e -> addAttendance());
+        bulkBtn.addActionListener(e -> showBulkAttendanceDialog());
+        archiveBtn.addActionListener(e -> archiveAttendanceYear());
         clearBtn.addActionListener(e -> clearAttendanceForm());
         
         buttonPanel.add(addBtn);
+        buttonPanel.add(bulkBtn);
+        buttonPanel.add(archiveBtn);
         buttonPanel.add(clearBtn);
         
         // Table
-        String[] columns = {"Employee ID", "Employee Name", "Date", "Present", "Hours Worked"};
+        String[] columns = {"Employee ID", "Employee Name", "Date", "Present", "Hours Worked", "Period"};
         attendanceTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -511,15 +4599,26 @@ public class PayrollManagementSystem extends JFrame {
         JPanel buttonPanel = new JPanel(new FlowLayout());
         JButton calculateBtn = new JButton("Calculate Salary");
         JButton clearBtn = new JButton("Clear");
+        JButton closePeriodBtn = new JButton("Close Period");
+        JButton payslipBtn = new JButton("Generate Payslips");
         
         calculateBtn.addActionListener(e -> calculateSalary());
         clearBtn.addActionListener(e -> clearSalaryForm());
+        closePeriodBtn.addActionListener(e -> closePeriod());
+        payslipBtn.addActionListener(e -> generatePayslips(payslipBtn));
+        
+        payslipProgressBar = new JProgressBar();
+        payslipProgressBar.setStringPainted(true);
+        payslipProgressBar.setString("Payslips");
         
         buttonPanel.add(calculateBtn);
         buttonPanel.add(clearBtn);
+        buttonPanel.add(closePeriodBtn);
+        buttonPanel.add(payslipBtn);
+        buttonPanel.add(payslipProgressBar);
         
         // Table
-        String[] columns = {"Employee ID", "Employee Name", "Month", "Year", "Basic Salary", "Allowances", "Deductions", "Net Salary", "Days Worked"};
+        String[] columns = {"Employee ID", "Employee Name", "Month", "Year", "Basic Salary", "Allowances", "Deductions", "Net Salary", "Days Worked", "Hours", "Overtime Pay", "Period"};
         salaryTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -527,6 +4626,11 @@ public class PayrollManagementSystem extends JFrame {
             }
         };
         salaryTable = new JTable(salaryTableModel);
+        salaryTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                loadSelectedSalaryPeriod();
+            }
+        });
         JScrollPane scrollPane = new JScrollPane(salaryTable);
         
         panel.add(formPanel, BorderLayout.NORTH);
@@ -545,14 +4649,60 @@ public class PayrollManagementSystem extends JFrame {
         reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
         
         JButton generateBtn = new JButton("Generate Monthly Report");
-        generateBtn.addActionListener(e -> generateReport(reportArea));
+        generateBtn.addActionListener(e -> generateReport(reportArea, generateBtn));
+        
+        // Query bar, e.g. "salaries position=Developer from=2024-01 to=2024-06 group=month"
+        JPanel queryPanel = new JPanel(new BorderLayout(5, 5));
+        queryPanel.setBorder(BorderFactory.createTitledBorder("Query (employees|attendance|salaries id= position= from= to= min= max= group=employee|position|month)"));
+        JTextField queryField = new JTextField();
+        JButton queryBtn = new JButton("Run Query");
+        queryBtn.addActionListener(e -> runQuery(queryField.getText(), reportArea));
+        queryField.addActionListener(e -> runQuery(queryField.getText(), reportArea));
+        queryPanel.add(queryField, BorderLayout.CENTER);
+        queryPanel.add(queryBtn, BorderLayout.EAST);
+        
+        // What-if bar, e.g. "position=Developer raise=10; from=2024-01 months=6"
+        JPanel simulatePanel = new JPanel(new BorderLayout(5, 5));
+        simulatePanel.setBorder(BorderFactory.createTitledBorder("What-If (position=|id= raise=% salary= bonus= ; ... from=yyyy-MM months=)"));
+        JTextField simulateField = new JTextField();
+        JButton simulateBtn = new JButton("Simulate");
+        simulateBtn.addActionListener(e -> runSimulation(simulateField.getText(), reportArea, simulateBtn));
+        simulateField.addActionListener(e -> runSimulation(simulateField.getText(), reportArea, simulateBtn));
+        simulatePanel.add(simulateField, BorderLayout.CENTER);
+        simulatePanel.add(simulateBtn, BorderLayout.EAST);
+        
+        JPanel topPanel = new JPanel(new BorderLayout(5, 5));
+        topPanel.add(generateBtn, BorderLayout.NORTH);
+        topPanel.add(queryPanel, BorderLayout.CENTER);
+        topPanel.add(simulatePanel, BorderLayout.SOUTH);
         
-        panel.add(generateBtn, BorderLayout.NORTH);
+        panel.add(topPanel, BorderLayout.NORTH);
         panel.add(new JScrollPane(reportArea), BorderLayout.CENTER);
         
         return panel;
     }
     
+    private JPanel createRollupPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        String[] columns = {"Year", "Month", "Position", "Headcount", "Total Basic", "Allowances", "Deductions", "Net"};
+        rollupTableModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable rollupTable = new JTable(rollupTableModel);
+        
+        JLabel hint = new JLabel("Cost by position per month, maintained as salaries are calculated. \"All positions\" rows are monthly totals.");
+        
+        panel.add(hint, BorderLayout.NORTH);
+        panel.add(new JScrollPane(rollupTable), BorderLayout.CENTER);
+        
+        return panel;
+    }
+    
     // Employee Management Methods
     private void addEmployee() {
         try {
@@ -567,8 +4717,9 @@ public class PayrollManagementSystem extends JFrame {
                 return;
             }
             
-            int id = dataManager.getNextEmployeeId();
+            int id = dataManager.allocateEmployeeId();
             Employee employee = new Employee(id, name, position, salary, email, phone);
+            employee.setPayBasis((Employee.PayBasis) empPayBasisComboBox.getSelectedItem());
             dataManager.addEmployee(employee);
             
             loadEmployeeTable();
@@ -596,13 +4747,12 @@ public class PayrollManagementSystem extends JFrame {
             String email = empEmailField.getText().trim();
             String phone = empPhoneField.getText().trim();
             
-            Employee employee = dataManager.getEmployeeById(id);
-            if (employee != null) {
-                employee.setName(name);
-                employee.setPosition(position);
-                employee.setBaseSalary(salary);
-                employee.setEmail(email);
-                employee.setPhone(phone);
+            Employee existing = dataManager.getEmployeeById(id);
+            if (existing != null) {
+                // Other threads read the stored Employee without the data manager lock, so it is replaced rather than edited
+                Employee employee = new Employee(id, name, position, salary, email, phone);
+                employee.setPayBasis((Employee.PayBasis) empPayBasisComboBox.getSelectedItem());
+                employee.setJoinDate(existing.getJoinDate());
                 
                 dataManager.updateEmployee(employee);
                 loadEmployeeTable();
@@ -639,6 +4789,7 @@ public class PayrollManagementSystem extends JFrame {
         empNameField.setText("");
         empPositionField.setText("");
         empSalaryField.setText("");
+        empPayBasisComboBox.setSelectedItem(Employee.PayBasis.SALARIED);
         empEmailField.setText("");
         empPhoneField.setText("");
     }
@@ -651,6 +4802,7 @@ public class PayrollManagementSystem extends JFrame {
             empSalaryField.setText(employeeTableModel.getValueAt(selectedRow, 3).toString());
             empEmailField.setText((String) employeeTableModel.getValueAt(selectedRow, 4));
             empPhoneField.setText((String) employeeTableModel.getValueAt(selectedRow, 5));
+            empPayBasisComboBox.setSelectedItem(employeeTableModel.getValueAt(selectedRow, 7));
         }
     }
     
@@ -673,6 +4825,10 @@ public class PayrollManagementSystem extends JFrame {
             }
             
             Attendance attendance = new Attendance(empId, LocalDate.now(), present, hours);
+            if (dataManager.isPeriodClosed(attendance.getPeriod())) {
+                JOptionPane.showMessageDialog(this, "The current period is closed", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             dataManager.addAttendance(attendance);
             
             loadAttendanceTable();
@@ -684,6 +4840,163 @@ public class PayrollManagementSystem extends JFrame {
         }
     }
     
+    private void archiveAttendanceYear() {
+        String input = JOptionPane.showInputDialog(this, "Archive attendance for year:", String.valueOf(LocalDate.now().getYear() - 1));
+        if (input == null) {
+            return;
+        }
+        
+        try {
+            int year = Integer.parseInt(input.trim());
+            if (year >= LocalDate.now().getYear()) {
+                JOptionPane.showMessageDialog(this, "Only past years can be archived", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (dataManager.getArchivedYears().containsKey(year)) {
+                JOptionPane.showMessageDialog(this, "Attendance for " + year + " is already archived", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            int count = dataManager.getAttendanceBetween(YearMonth.of(year, 1), YearMonth.of(year, 12)).size();
+            if (count == 0) {
+                JOptionPane.showMessageDialog(this, "No attendance records to archive for " + year, "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            int confirm = JOptionPane.showConfirmDialog(this,
+                    "Archive " + count + " attendance records from " + year + "?\nThey will only be available to queries and audits, and can no longer be changed.",
+                    "Confirm Archive", JOptionPane.YES_NO_OPTION);
+            if (confirm != JOptionPane.YES_OPTION) {
+                return;
+            }
+            
+            AttendanceArchive archive = dataManager.archiveAttendanceYear(year);
+            // Read the archive straight back, which both verifies it and measures decode throughput
+            archive.readAttendance();
+            loadAttendanceTable();
+            
+            JOptionPane.showMessageDialog(this, "Archived attendance for " + archive.describeStats(), "Success", JOptionPane.INFORMATION_MESSAGE);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Please enter a valid year", "Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error archiving attendance: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void showBulkAttendanceDialog() {
+        JDialog dialog = new JDialog(this, "Mark Attendance for All", true);
+        dialog.setSize(600, 500);
+        dialog.setLocationRelativeTo(this);
+        
+        JTextField dateField = new JTextField(LocalDate.now().toString(), 10);
+        JTextField standardHoursField = new JTextField("8", 5);
+        JButton resetBtn = new JButton("Load Day");
+        
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        topPanel.add(new JLabel("Date (yyyy-MM-dd):"));
+        topPanel.add(dateField);
+        topPanel.add(new JLabel("Standard Hours:"));
+        topPanel.add(standardHoursField);
+        topPanel.add(resetBtn);
+        
+        String[] columns = {"Employee ID", "Employee Name", "Present", "Hours Worked"};
+        DefaultTableModel gridModel = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return column >= 2;
+            }
+            
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return switch (column) {
+                    case 0 -> Integer.class;
+                    case 2 -> Boolean.class;
+                    case 3 -> Double.class;
+                    default -> String.class;
+                };
+            }
+        };
+        JTable grid = new JTable(gridModel);
+        JButton commitBtn = new JButton("Commit Day");
+        // The grid shows this date's records; editing the date field has no effect until the day is loaded
+        LocalDate[] loadedDate = new LocalDate[1];
+        
+        // Everyone defaults to present with standard hours; existing records for the day are shown as recorded
+        Runnable loadDay = () -> {
+            try {
+                LocalDate date = LocalDate.parse(dateField.getText().trim());
+                double standardHours = Double.parseDouble(standardHoursField.getText().trim());
+                Map<Integer, Attendance> existing = new HashMap<>();
+                for (Attendance att : dataManager.getAttendanceBetween(YearMonth.from(date), YearMonth.from(date))) {
+                    if (att.getDate().equals(date)) {
+                        existing.put(att.getEmployeeId(), att);
+                    }
+                }
+                gridModel.setRowCount(0);
+                for (Employee emp : dataManager.getAllEmployees()) {
+                    Attendance att = existing.get(emp.getId());
+                    gridModel.addRow(new Object[] {
+                        emp.getId(),
+                        emp.getName(),
+                        att != null ? att.isPresent() : Boolean.TRUE,
+                        att != null ? att.getHoursWorked() : standardHours
+                    });
+                }
+                loadedDate[0] = date;
+                commitBtn.setText("Commit " + date);
+            } catch (RuntimeException ex) {
+                JOptionPane.showMessageDialog(dialog, "Please enter a valid date and standard hours", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        resetBtn.addActionListener(e -> loadDay.run());
+        loadDay.run();
+        
+        JButton cancelBtn = new JButton("Cancel");
+        commitBtn.addActionListener(e -> {
+            if (grid.isEditing()) {
+                grid.getCellEditor().stopCellEditing();
+            }
+            LocalDate date = loadedDate[0];
+            if (date == null) {
+                JOptionPane.showMessageDialog(dialog, "Please load a day first", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            if (dataManager.isPeriodClosed(YearMonth.from(date))) {
+                JOptionPane.showMessageDialog(dialog, "Period " + YearMonth.from(date) + " is closed", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            List<Attendance> batch = new ArrayList<>();
+            for (int row = 0; row < gridModel.getRowCount(); row++) {
+                int empId = (Integer) gridModel.getValueAt(row, 0);
+                boolean present = Boolean.TRUE.equals(gridModel.getValueAt(row, 2));
+                Object hoursValue = gridModel.getValueAt(row, 3);
+                double hours = present && hoursValue != null ? ((Number) hoursValue).doubleValue() : 0;
+                if (present && hours <= 0) {
+                    JOptionPane.showMessageDialog(dialog, "Please enter valid hours worked for employee " + empId, "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                batch.add(new Attendance(empId, date, present, hours));
+            }
+            
+            dataManager.addAttendanceBatch(date, batch);
+            loadAttendanceTable();
+            dialog.dispose();
+            
+            JOptionPane.showMessageDialog(this, "Attendance marked for " + batch.size() + " employees on " + date, "Success", JOptionPane.INFORMATION_MESSAGE);
+        });
+        cancelBtn.addActionListener(e -> dialog.dispose());
+        
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        bottomPanel.add(commitBtn);
+        bottomPanel.add(cancelBtn);
+        
+        dialog.setLayout(new BorderLayout());
+        dialog.add(topPanel, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(grid), BorderLayout.CENTER);
+        dialog.add(bottomPanel, BorderLayout.SOUTH);
+        dialog.setVisible(true);
+    }
+    
     private void clearAttendanceForm() {
         attEmpComboBox.setSelectedIndex(-1);
         attPresentCheckBox.setSelected(false);
@@ -711,28 +5024,117 @@ public class PayrollManagementSystem extends JFrame {
                 return;
             }
             
-            // Calculate working days for the month
-            int daysWorked = calculateWorkingDays(empId, month, year);
+            // Days and hours come from the month's maintained attendance totals
+            YearMonth period = YearMonth.of(year, Month.valueOf(month.toUpperCase()));
+            MonthlyHours hours = dataManager.getMonthlyHours(empId, period);
             
-            Salary salary = new Salary(empId, month, year, employee.getBaseSalary(), allowances, deductions, daysWorked);
+            Salary salary = Salary.calculate(employee, period, hours, allowances, deductions);
+            if (dataManager.isPeriodClosed(salary.getPeriod())) {
+                JOptionPane.showMessageDialog(this, "Period " + salary.getPeriod() + " is closed", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             dataManager.addSalary(salary);
             
             loadSalaryTable();
+            loadRollupTable();
             clearSalaryForm();
             
-            JOptionPane.showMessageDialog(this, "Salary calculated successfully!\nNet Salary: $" + String.format("%.2f", salary.getNetSalary()), "Success", JOptionPane.INFORMATION_MESSAGE);
+            JOptionPane.showMessageDialog(this, String.format("Salary calculated successfully!\nHours Worked: %.2f (%.2f overtime)\nOvertime Pay: $%.2f\nNet Salary: $%.2f",
+                    salary.getHoursWorked(), salary.getOvertimeHours(), salary.getOvertimePay(), salary.getNetSalary()), "Success", JOptionPane.INFORMATION_MESSAGE);
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Please enter valid numeric values", "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
     
-    private int calculateWorkingDays(int empId, String month, int year) {
-        List<Attendance> attendanceList = dataManager.getAttendanceByEmployee(empId);
-        return (int) attendanceList.stream()
-                .filter(att -> att.getDate().getYear() == year && 
-                              att.getDate().getMonth().toString().toLowerCase().startsWith(month.toLowerCase().substring(0, 3)))
-                .filter(Attendance::isPresent)
-                .count();
+    private void closePeriod() {
+        try {
+            String month = (String) salMonthComboBox.getSelectedItem();
+            int year = Integer.parseInt(salYearField.getText().trim());
+            YearMonth period = YearMonth.of(year, Month.valueOf(month.toUpperCase()));
+            
+            if (dataManager.isPeriodClosed(period)) {
+                JOptionPane.showMessageDialog(this, "Period " + period + " is already closed", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            
+            int confirm = JOptionPane.showConfirmDialog(this,
+                    "Close " + month + " " + year + "?\nIts attendance and salary records will be sealed and can no longer be changed.",
+                    "Confirm Close Period", JOptionPane.YES_NO_OPTION);
+            if (confirm != JOptionPane.YES_OPTION) {
+                return;
+            }
+            
+            PeriodSegment segment = dataManager.closePeriod(period);
+            loadAttendanceTable();
+            loadSalaryTable();
+            
+            JOptionPane.showMessageDialog(this, String.format("Period %s closed.\nSealed %d attendance and %d salary records.\nTotal net: $%.2f",
+                    period, segment.getAttendanceCount(), segment.getSalaryCount(), segment.getTotalNet()), "Success", JOptionPane.INFORMATION_MESSAGE);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Please enter a valid year", "Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error closing period: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void generatePayslips(JButton payslipBtn) {
+        PayslipGenerator generator;
+        try {
+            String month = (String) salMonthComboBox.getSelectedItem();
+            int year = Integer.parseInt(salYearField.getText().trim());
+            generator = new PayslipGenerator(dataManager, YearMonth.of(year, Month.valueOf(month.toUpperCase())));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Please enter a valid year", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error reading period: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        int total = generator.getPayslipCount();
+        if (total == 0) {
+            JOptionPane.showMessageDialog(this, "No salaries calculated for the selected month", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        payslipBtn.setEnabled(false);
+        payslipProgressBar.setMaximum(total);
+        payslipProgressBar.setValue(0);
+        payslipProgressBar.setString("0 / " + total);
+        Path root = Paths.get("payslips");
+        long start = System.nanoTime();
+        
+        new SwingWorker<Integer, Integer>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                return generator.generate(root, this::publish);
+            }
+            
+            @Override
+            protected void process(List<Integer> chunks) {
+                int done = Collections.max(chunks);
+                payslipProgressBar.setValue(done);
+                payslipProgressBar.setString(done + " / " + total);
+            }
+            
+            @Override
+            protected void done() {
+                payslipBtn.setEnabled(true);
+                try {
+                    int written = get();
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    payslipProgressBar.setValue(total);
+                    payslipProgressBar.setString(written + " / " + total);
+                    JOptionPane.showMessageDialog(PayrollManagementSystem.this,
+                            String.format("Generated %d payslips (%d files) in %.2fs\nOutput: %s",
+                                    written, written * 2, seconds, root.toAbsolutePath()),
+                            "Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception e) {
+                    payslipProgressBar.setString("Failed");
+                    JOptionPane.showMessageDialog(PayrollManagementSystem.this, "Error generating payslips: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
     
     private void clearSalaryForm() {
@@ -748,6 +5150,7 @@ public class PayrollManagementSystem extends JFrame {
         loadEmployeeTable();
         loadAttendanceTable();
         loadSalaryTable();
+        loadRollupTable();
         updateEmployeeComboBoxes();
     }
     
@@ -764,15 +5167,26 @@ public class PayrollManagementSystem extends JFrame {
                 String.format("$%.2f", emp.getBaseSalary()),
                 emp.getEmail(),
                 emp.getPhone(),
-                emp.getJoinDate().format(formatter)
+                emp.getJoinDate().format(formatter),
+                emp.getPayBasis()
             };
             employeeTableModel.addRow(row);
         }
     }
     
+    // Closed months are listed first and marked; their records can be viewed but no longer changed
     private void loadAttendanceTable() {
         attendanceTableModel.setRowCount(0);
-        List<Attendance> attendanceList = dataManager.getAllAttendance();
+        NavigableMap<YearMonth, PeriodSegment> closed = dataManager.getClosedPeriods();
+        List<Attendance> attendanceList = new ArrayList<>();
+        if (!closed.isEmpty()) {
+            try {
+                attendanceList.addAll(dataManager.readClosedAttendance(closed.firstKey(), closed.lastKey()));
+            } catch (IOException e) {
+                System.err.println("Error reading closed attendance: " + e.getMessage());
+            }
+        }
+        attendanceList.addAll(dataManager.getAllAttendance());
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         
         for (Attendance att : attendanceList) {
@@ -784,7 +5198,8 @@ public class PayrollManagementSystem extends JFrame {
                 empName,
                 att.getDate().format(formatter),
                 att.isPresent() ? "Yes" : "No",
-                att.getHoursWorked()
+                att.getHoursWorked(),
+                closed.containsKey(att.getPeriod()) ? "Closed" : "Open"
             };
             attendanceTableModel.addRow(row);
         }
@@ -792,7 +5207,16 @@ public class PayrollManagementSystem extends JFrame {
     
     private void loadSalaryTable() {
         salaryTableModel.setRowCount(0);
-        List<Salary> salaryList = dataManager.getAllSalaries();
+        NavigableMap<YearMonth, PeriodSegment> closed = dataManager.getClosedPeriods();
+        List<Salary> salaryList = new ArrayList<>();
+        if (!closed.isEmpty()) {
+            try {
+                salaryList.addAll(dataManager.readClosedSalaries(closed.firstKey(), closed.lastKey()));
+            } catch (IOException e) {
+                System.err.println("Error reading closed salaries: " + e.getMessage());
+            }
+        }
+        salaryList.addAll(dataManager.getAllSalaries());
         
         for (Salary sal : salaryList) {
             Employee emp = dataManager.getEmployeeById(sal.getEmployeeId());
@@ -807,12 +5231,53 @@ public class PayrollManagementSystem extends JFrame {
                 String.format("$%.2f", sal.getAllowances()),
                 String.format("$%.2f", sal.getDeductions()),
                 String.format("$%.2f", sal.getNetSalary()),
-                sal.getDaysWorked()
+                sal.getDaysWorked(),
+                String.format("%.2f", sal.getHoursWorked()),
+                String.format("$%.2f", sal.getOvertimePay()),
+                closed.containsKey(sal.getPeriod()) ? "Closed" : "Open"
             };
             salaryTableModel.addRow(row);
         }
     }
     
+    // Selecting a salary row, open or closed, picks its month for payslip generation
+    private void loadSelectedSalaryPeriod() {
+        int selectedRow = salaryTable.getSelectedRow();
+        if (selectedRow != -1) {
+            String month = (String) salaryTableModel.getValueAt(selectedRow, 2);
+            salMonthComboBox.setSelectedItem(month.substring(0, 1).toUpperCase() + month.substring(1).toLowerCase());
+            salYearField.setText(String.valueOf(salaryTableModel.getValueAt(selectedRow, 3)));
+        }
+    }
+    
+    private void loadRollupTable() {
+        rollupTableModel.setRowCount(0);
+        for (Map.Entry<YearMonth, TreeMap<String, RollupCell>> month : dataManager.getRollups().getCells().descendingMap().entrySet()) {
+            YearMonth ym = month.getKey();
+            String monthName = ym.getMonth().getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+            RollupCell monthTotal = new RollupCell();
+            for (Map.Entry<String, RollupCell> position : month.getValue().entrySet()) {
+                addRollupRow(ym.getYear(), monthName, position.getKey(), position.getValue());
+                monthTotal.merge(position.getValue());
+            }
+            addRollupRow(ym.getYear(), monthName, "All positions", monthTotal);
+        }
+    }
+    
+    private void addRollupRow(int year, String month, String position, RollupCell cell) {
+        Object[] row = {
+            year,
+            month,
+            position,
+            cell.getHeadcount(),
+            String.format("$%.2f", cell.getTotalBasic()),
+            String.format("$%.2f", cell.getTotalAllowances()),
+            String.format("$%.2f", cell.getTotalDeductions()),
+            String.format("$%.2f", cell.getTotalNet())
+        };
+        rollupTableModel.addRow(row);
+    }
+    
     private void updateEmployeeComboBoxes() {
         attEmpComboBox.removeAllItems();
         salEmpComboBox.removeAllItems();
@@ -825,121 +5290,208 @@ public class PayrollManagementSystem extends JFrame {
         }
     }
     
-    private void generateReport(JTextArea reportArea) {
-        StringBuilder report = new StringBuilder();
-        report.append("PAYROLL MANAGEMENT SYSTEM - MONTHLY REPORT\n");
-        report.append("==========================================\n\n");
+    private void generateReport(JTextArea reportArea, JButton generateBtn) {
+        generateBtn.setEnabled(false);
+        MonthlyReport report = new MonthlyReport(dataManager, LocalDate.now());
+        // A presized document avoids regrowing its buffer on every appended chunk
+        reportArea.setDocument(new PlainDocument(new GapContent(report.estimateLength())));
         
-        LocalDate now = LocalDate.now();
-        String currentMonth = now.getMonth().toString();
-        int currentYear = now.getYear();
-        
-        report.append("Report Generated: ").append(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd"))).append("\n");
-        report.append("Current Month: ").append(currentMonth).append(" ").append(currentYear).append("\n\n");
-        
-        // Employee Summary
-        List<Employee> employees = dataManager.getAllEmployees();
-        report.append("EMPLOYEE SUMMARY\n");
-        report.append("----------------\n");
-        report.append("Total Employees: ").append(employees.size()).append("\n\n");
-        
-        if (!employees.isEmpty()) {
-            report.append(String.format("%-5s %-20s %-15s %-12s\n", "ID", "Name", "Position", "Base Salary"));
-            report.append("-".repeat(60)).append("\n");
-            
-            for (Employee emp : employees) {
-                report.append(String.format("%-5d %-20s %-15s $%-11.2f\n",
-                    emp.getId(),
-                    emp.getName().length() > 20 ? emp.getName().substring(0, 17) + "..." : emp.getName(),
-                    emp.getPosition().length() > 15 ? emp.getPosition().substring(0, 12) + "..." : emp.getPosition(),
-                    emp.getBaseSalary()));
+        // Sections finish in any order; each is shown once the ones before it are, a chunk per EDT task
+        CompletableFuture<Void> shown = CompletableFuture.completedFuture(null);
+        for (CompletableFuture<List<String>> section : report.start()) {
+            shown = shown.thenCombine(section, (done, chunks) -> chunks)
+                    .thenAccept(chunks -> chunks.forEach(chunk -> SwingUtilities.invokeLater(() -> reportArea.append(chunk))));
+        }
+        shown.whenComplete((done, error) -> SwingUtilities.invokeLater(() -> {
+            generateBtn.setEnabled(true);
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Error generating report: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }));
+    }
+    
+    private void runQuery(String text, JTextArea reportArea) {
+        if (text.trim().isEmpty()) {
+            return;
+        }
+        try {
+            QueryResult result = PayrollQuery.parse(text).execute(dataManager);
+            reportArea.setText(result.toText(dataManager));
+            reportArea.setCaretPosition(0);
+        } catch (RuntimeException e) {
+            JOptionPane.showMessageDialog(this, "Invalid query: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void runSimulation(String text, JTextArea reportArea, JButton simulateBtn) {
+        if (text.trim().isEmpty()) {
+            return;
+        }
+        PayrollSimulation simulation;
+        try {
+            simulation = PayrollSimulation.parse(text);
+        } catch (RuntimeException e) {
+            JOptionPane.showMessageDialog(this, "Invalid simulation: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        simulateBtn.setEnabled(false);
+        CompletableFuture.supplyAsync(() -> simulation.run(dataManager)).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            simulateBtn.setEnabled(true);
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Error running simulation: " + error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                reportArea.setText(result.toText());
+                reportArea.setCaretPosition(0);
+            }
+        }));
+    }
+    
+    private static void runHeadlessServer(String[] args) {
+        int port = PayrollApiServer.DEFAULT_PORT;
+        int replicationPort = -1;
+        String primary = null;
+        Path tenantRoot = null;
+        long tenantMemory = Runtime.getRuntime().maxMemory() / 2;
+        long tenantIdleMillis = TimeUnit.MINUTES.toMillis(10);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--serve" -> {
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                        port = Integer.parseInt(args[++i]);
+                    }
+                }
+                case "--replication-port" -> replicationPort = Integer.parseInt(args[++i]);
+                case "--replica" -> primary = args[++i];
+                case "--tenants" -> tenantRoot = i + 1 < args.length && !args[i + 1].startsWith("--")
+                        ? Paths.get(args[++i]) : DataManager.DEFAULT_DATA_DIR.resolve("tenants");
+                case "--tenant-memory-mb" -> tenantMemory = Long.parseLong(args[++i]) * 1024 * 1024;
+                case "--tenant-idle-seconds" -> tenantIdleMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[++i]));
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
             }
         }
         
-        report.append("\n");
-        
-        // Attendance Summary for Current Month
-        List<Attendance> currentMonthAttendance = dataManager.getAllAttendance().stream()
-            .filter(att -> att.getDate().getMonth().toString().equals(currentMonth) && 
-                          att.getDate().getYear() == currentYear)
-            .toList();
-        
-        report.append("ATTENDANCE SUMMARY - ").append(currentMonth).append(" ").append(currentYear).append("\n");
-        report.append("-".repeat(40)).append("\n");
-        
-        Map<Integer, Long> attendanceCount = currentMonthAttendance.stream()
-            .filter(Attendance::isPresent)
-            .collect(java.util.stream.Collectors.groupingBy(
-                Attendance::getEmployeeId, 
-                java.util.stream.Collectors.counting()));
-        
-        if (attendanceCount.isEmpty()) {
-            report.append("No attendance records found for current month.\n");
-        } else {
-            report.append(String.format("%-5s %-20s %-12s\n", "ID", "Employee Name", "Days Present"));
-            report.append("-".repeat(40)).append("\n");
-            
-            for (Map.Entry<Integer, Long> entry : attendanceCount.entrySet()) {
-                Employee emp = dataManager.getEmployeeById(entry.getKey());
-                String empName = emp != null ? emp.getName() : "Unknown";
-                report.append(String.format("%-5d %-20s %-12d\n",
-                    entry.getKey(),
-                    empName.length() > 20 ? empName.substring(0, 17) + "..." : empName,
-                    entry.getValue()));
+        if (tenantRoot != null) {
+            if (primary != null || replicationPort > 0) {
+                System.err.println("--tenants cannot be combined with replication");
+                return;
             }
+            TenantRegistry registry = new TenantRegistry(tenantRoot, tenantMemory, tenantIdleMillis);
+            PayrollApiServer server = new PayrollApiServer(registry, port);
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Failed to start server: " + e.getMessage());
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                registry.shutdown();
+            }));
+            System.out.println("Payroll API for companies in " + tenantRoot + " listening on http://localhost:" + server.getPort() + "/api/tenants");
+            return;
         }
         
-        report.append("\n");
+        DataManager dataManager;
+        PayrollApiServer server;
+        ReplicationServer replicationServer = null;
+        try {
+            if (primary != null) {
+                String[] hostPort = primary.split(":");
+                dataManager = DataManager.newReplica();
+                ReplicaClient client = new ReplicaClient(hostPort[0], Integer.parseInt(hostPort[1]), dataManager);
+                client.start();
+                server = new PayrollApiServer(dataManager, port);
+                server.setReplicationMetrics(client::toJson);
+                System.out.println("Replicating from " + primary);
+            } else {
+                dataManager = new DataManager();
+                server = new PayrollApiServer(dataManager, port);
+                if (replicationPort > 0) {
+                    ReplicationServer replication = new ReplicationServer(dataManager, replicationPort);
+                    replication.start();
+                    server.setReplicationMetrics(() -> "{\"followers\":" + replication.getFollowerCount() + "}");
+                    replicationServer = replication;
+                    System.out.println("Replication log shipping on localhost:" + replicationPort);
+                }
+            }
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Failed to start server: " + e.getMessage());
+            return;
+        }
         
-        // Salary Summary for Current Month
-        List<Salary> currentMonthSalaries = dataManager.getAllSalaries().stream()
-            .filter(sal -> sal.getMonth().toUpperCase().startsWith(currentMonth.substring(0, 3)) && 
-                          sal.getYear() == currentYear)
-            .toList();
+        ReplicationServer replication = replicationServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (replication != null) {
+                replication.stop();
+            }
+            dataManager.saveData();
+        }));
+        System.out.println("Payroll API listening on http://localhost:" + server.getPort() + "/api/employees");
+    }
+    
+    public static void main(String[] args) {
+        // Headless query mode: java PayrollManagementSystem --query salaries group=position
+        if (args.length > 0 && args[0].equals("--query")) {
+            DataManager dataManager = new DataManager();
+            String text = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+            try {
+                System.out.print(PayrollQuery.parse(text).execute(dataManager).toText(dataManager));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                System.err.println("Query failed: " + e.getMessage()
+                        + " (usage: --query employees|attendance|salaries id= position= from= to= min= max= group=)");
+                System.exit(2);
+            }
+            return;
+        }
         
-        report.append("SALARY SUMMARY - ").append(currentMonth).append(" ").append(currentYear).append("\n");
-        report.append("-".repeat(50)).append("\n");
+        // Headless report mode: java PayrollManagementSystem --report
+        if (args.length > 0 && args[0].equals("--report")) {
+            System.out.print(new MonthlyReport(new DataManager(), LocalDate.now()).render());
+            return;
+        }
         
-        if (currentMonthSalaries.isEmpty()) {
-            report.append("No salary records found for current month.\n");
-        } else {
-            double totalSalaries = 0;
-            report.append(String.format("%-5s %-20s %-12s %-10s\n", "ID", "Employee Name", "Net Salary", "Days Worked"));
-            report.append("-".repeat(50)).append("\n");
-            
-            for (Salary sal : currentMonthSalaries) {
-                Employee emp = dataManager.getEmployeeById(sal.getEmployeeId());
-                String empName = emp != null ? emp.getName() : "Unknown";
-                totalSalaries += sal.getNetSalary();
-                
-                report.append(String.format("%-5d %-20s $%-11.2f %-10d\n",
-                    sal.getEmployeeId(),
-                    empName.length() > 20 ? empName.substring(0, 17) + "..." : empName,
-                    sal.getNetSalary(),
-                    sal.getDaysWorked()));
+        // Headless what-if mode: java PayrollManagementSystem --simulate position=Developer raise=10 months=6
+        if (args.length > 0 && args[0].equals("--simulate")) {
+            String text = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+            try {
+                System.out.print(PayrollSimulation.parse(text).run(new DataManager()).toText());
+            } catch (IllegalArgumentException | DateTimeException e) {
+                System.err.println("Simulation failed: " + e.getMessage()
+                        + " (usage: --simulate \"position=|id= raise=% salary= bonus= ; ... from=yyyy-MM months=\")");
+                System.exit(2);
             }
-            
-            report.append("-".repeat(50)).append("\n");
-            report.append(String.format("Total Salaries Paid: $%.2f\n", totalSalaries));
+            return;
         }
         
-        // Statistics
-        report.append("\n");
-        report.append("SYSTEM STATISTICS\n");
-        report.append("-----------------\n");
-        report.append("Total Employees: ").append(employees.size()).append("\n");
-        report.append("Total Attendance Records: ").append(dataManager.getAllAttendance().size()).append("\n");
-        report.append("Total Salary Records: ").append(dataManager.getAllSalaries().size()).append("\n");
+        // Headless archive mode: java PayrollManagementSystem --archive [year]
+        // Archives the year if given, then decodes every archive and reports its ratio and throughput
+        if (args.length > 0 && args[0].equals("--archive")) {
+            DataManager dataManager = new DataManager();
+            try {
+                if (args.length > 1) {
+                    dataManager.archiveAttendanceYear(Integer.parseInt(args[1]));
+                }
+                for (AttendanceArchive archive : dataManager.getArchivedYears().values()) {
+                    archive.readAttendance();
+                    System.out.println(archive.describeStats());
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Archive failed: " + e.getMessage());
+            }
+            return;
+        }
         
-        if (!employees.isEmpty()) {
-            double avgSalary = employees.stream().mapToDouble(Employee::getBaseSalary).average().orElse(0);
-            report.append("Average Base Salary: $").append(String.format("%.2f", avgSalary)).append("\n");
+        // Headless server modes:
+        //   primary: java PayrollManagementSystem --serve [port] [--replication-port port]
+        //   replica: java PayrollManagementSystem --replica host:port --serve [port]
+        //   companies: java PayrollManagementSystem --serve [port] --tenants [dir] [--tenant-memory-mb n] [--tenant-idle-seconds n]
+        if (args.length > 0 && (args[0].equals("--serve") || args[0].equals("--replica"))) {
+            runHeadlessServer(args);
+            return;
         }
         
-        reportArea.setText(report.toString());
-    }
-    
-    public static void main(String[] args) {
         // Set system properties for better look and feel
         System.setProperty("awt.useSystemAAFontSettings", "on");
         System.setProperty("swing.aatext", "true");